@@ -25,10 +25,19 @@ package desi.juan.email.api;
 
 import static java.util.Collections.emptyMap;
 
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.Map;
 
+import desi.juan.email.internal.StreamedDataSource;
+
 /**
  * Represents and enables the construction of an email attachment.
+ * <p>
+ * When the same attachment is sent with many emails the same instance should be reused, the client then encodes it's content
+ * only once and reuses the encoded form for the rest of the emails.
+ * <p>
+ * Attachments created from files or streams are never held in memory, their content is read while the email is being sent.
  */
 public final class EmailAttachment {
 
@@ -62,6 +71,42 @@ public final class EmailAttachment {
     this.headers = headers;
   }
 
+  /**
+   * Creates an attachment that streams the content of a file, the file is read in chunks each time the attachment is sent
+   * instead of being loaded in memory. Large files are memory mapped.
+   *
+   * @param path        the file to be attached, it's file name is used as the attachment name.
+   * @param contentType the content type of the file.
+   */
+  public static EmailAttachment fromPath(Path path, String contentType) {
+    String id = path.getFileName().toString();
+    return new EmailAttachment(id, StreamedDataSource.fromPath(id, path, contentType), contentType);
+  }
+
+  /**
+   * Creates an attachment that streams the whole content of an open file, the content is read in chunks each time the
+   * attachment is sent instead of being loaded in memory. The channel is never closed nor it's position modified.
+   *
+   * @param id          the name of the attachment.
+   * @param channel     the file to be attached.
+   * @param contentType the content type of the file.
+   */
+  public static EmailAttachment fromChannel(String id, FileChannel channel, String contentType) {
+    return new EmailAttachment(id, StreamedDataSource.fromChannel(id, channel, contentType), contentType);
+  }
+
+  /**
+   * Creates an attachment that streams it's content from the streams opened by a {@link InputStreamSupplier}, a new stream is
+   * opened each time the attachment is sent.
+   *
+   * @param id          the name of the attachment.
+   * @param supplier    opens the streams with the content of the attachment.
+   * @param contentType the content type of the attachment.
+   */
+  public static EmailAttachment fromStream(String id, InputStreamSupplier supplier, String contentType) {
+    return new EmailAttachment(id, StreamedDataSource.fromSupplier(id, supplier, contentType), contentType);
+  }
+
   /**
    * @return the name of the attachment.
    */
@@ -77,4 +77,11 @@ public class EmailBody {
     this.contentType = contentType;
     this.charset = charset;
   }
+
+  /**
+   * @return a new body with the same content type and character encoding of this one but a different content.
+   */
+  EmailBody withContent(String content) {
+    return new EmailBody(content, charset, contentType);
+  }
 }
@@ -0,0 +1,80 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.api;
+
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of the emails of a folder, carries the token to continue walking the folder from where this page ended.
+ * <p>
+ * Pages are delimited by the unique ids of the emails and not by their position in the folder, so emails that arrive or are
+ * deleted while the folder is walked do not make the next page skip or repeat emails.
+ */
+public final class EmailPage {
+
+  /**
+   * The emails of the page, in the order they were requested.
+   */
+  private final List<Email> emails;
+
+  /**
+   * The opaque token that identifies where the next page starts.
+   */
+  private final String continuationToken;
+
+  /**
+   * If there were more emails to retrieve after this page when it was retrieved.
+   */
+  private final boolean more;
+
+  public EmailPage(List<Email> emails, String continuationToken, boolean more) {
+    this.emails = unmodifiableList(new ArrayList<>(emails));
+    this.continuationToken = continuationToken;
+    this.more = more;
+  }
+
+  /**
+   * @return the emails of the page, in the order they were requested.
+   */
+  public List<Email> getEmails() {
+    return emails;
+  }
+
+  /**
+   * @return the token to retrieve the page that follows this one, it keeps the order this page was requested with.
+   */
+  public String getContinuationToken() {
+    return continuationToken;
+  }
+
+  /**
+   * @return true if there were more emails after this page when it was retrieved, false if this was the last page.
+   */
+  public boolean hasMore() {
+    return more;
+  }
+}
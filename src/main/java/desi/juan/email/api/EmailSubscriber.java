@@ -0,0 +1,41 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.api;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link Flow.Subscriber} that sends the emails of a reactive pipeline.
+ * <p>
+ * The outcome of each email is notified as it's sent, the outcome of the whole stream is available through
+ * {@link #completion()}.
+ */
+public interface EmailSubscriber extends Flow.Subscriber<Email> {
+
+  /**
+   * @return a future completed once the upstream completed and all the emails it published were sent, successfully or not, or
+   *         completed exceptionally with the error of the upstream once the emails being sent when it failed are done.
+   */
+  CompletableFuture<Void> completion();
+}
@@ -0,0 +1,204 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.api;
+
+import static java.lang.String.format;
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimap;
+import desi.juan.email.internal.EncodedAttachment;
+import desi.juan.email.internal.RenderedEmail;
+
+/**
+ * A precompiled email that is personalized for each recipient, used to send the same email to many recipients with small
+ * differences between each of them (mail merge).
+ * <p>
+ * The subject, the addresses, the header values and the body can contain {@code ${name}} placeholders that are replaced by the
+ * values of a data map when the template is rendered. The placeholders are parsed once when the template is built and the
+ * attachments are encoded once and shared by all the rendered emails, so rendering only costs the personalized text.
+ * <p>
+ * Instances are immutable and can be rendered concurrently.
+ */
+public final class EmailTemplate {
+
+  private static final String PLACEHOLDER_START = "${";
+  private static final String PLACEHOLDER_END = "}";
+
+  private final Text subject;
+  private final List<Text> from;
+  private final List<Text> to;
+  private final List<Text> bcc;
+  private final List<Text> cc;
+  private final List<Text> replyTo;
+  private final ListMultimap<String, Text> headers;
+  private final EmailBody body;
+  private final Text bodyContent;
+  private final List<EmailAttachment> attachments;
+  private final List<EncodedAttachment> encodedAttachments;
+
+  /**
+   * The multipart boundary shared by all the rendered emails, the attachments are the same for all of them so the boundary
+   * does not need to be generated for each one.
+   */
+  private final String boundary;
+
+  EmailTemplate(String subject,
+                List<String> from,
+                List<String> to,
+                List<String> bcc,
+                List<String> cc,
+                List<String> replyTo,
+                EmailBody body,
+                List<EmailAttachment> attachments,
+                Multimap<String, String> headers) {
+    this.subject = Text.compile(subject);
+    this.from = compile(from);
+    this.to = compile(to);
+    this.bcc = compile(bcc);
+    this.cc = compile(cc);
+    this.replyTo = compile(replyTo);
+    ImmutableListMultimap.Builder<String, Text> compiledHeaders = ImmutableListMultimap.builder();
+    headers.entries().forEach(header -> compiledHeaders.put(header.getKey(), Text.compile(header.getValue())));
+    this.headers = compiledHeaders.build();
+    this.body = body;
+    this.bodyContent = Text.compile(body.getContent());
+    this.attachments = ImmutableList.copyOf(attachments);
+    this.encodedAttachments = ImmutableList.copyOf(attachments.stream().map(EncodedAttachment::new).collect(toList()));
+    this.boundary = "----=_Template_" + UUID.randomUUID();
+  }
+
+  /**
+   * Renders the template replacing all the placeholders with the values of the provided {@code data}.
+   *
+   * @param data the values of the placeholders, by placeholder name.
+   * @return a new {@link Email} ready to be sent.
+   * @throws IllegalArgumentException if the {@code data} does not contain a value for one of the placeholders.
+   */
+  public Email render(Map<String, String> data) {
+    Multimap<String, String> renderedHeaders = ArrayListMultimap.create();
+    headers.entries().forEach(header -> renderedHeaders.put(header.getKey(), header.getValue().render(data)));
+    return new RenderedEmail(subject.render(data),
+                             render(from, data),
+                             render(to, data),
+                             render(bcc, data),
+                             render(cc, data),
+                             render(replyTo, data),
+                             bodyContent.isConstant() ? body : body.withContent(bodyContent.render(data)),
+                             attachments,
+                             encodedAttachments,
+                             renderedHeaders,
+                             boundary);
+  }
+
+  private static List<Text> compile(List<String> values) {
+    return ImmutableList.copyOf(values.stream().map(Text::compile).collect(toList()));
+  }
+
+  private static List<String> render(List<Text> values, Map<String, String> data) {
+    List<String> rendered = new ArrayList<>(values.size());
+    for (Text value : values) {
+      rendered.add(value.render(data));
+    }
+    return rendered;
+  }
+
+  /**
+   * A text split in the literal chunks and the placeholders between them.
+   */
+  private static final class Text {
+
+    /**
+     * The literal chunks, there is always one more literal than placeholders, they may be empty.
+     */
+    private final String[] literals;
+    private final String[] placeholders;
+    private final int literalsLength;
+
+    private Text(String[] literals, String[] placeholders) {
+      this.literals = literals;
+      this.placeholders = placeholders;
+      int length = 0;
+      for (String literal : literals) {
+        length += literal.length();
+      }
+      this.literalsLength = length;
+    }
+
+    static Text compile(String text) {
+      List<String> literals = new ArrayList<>();
+      List<String> placeholders = new ArrayList<>();
+      int position = 0;
+      int start;
+      while ((start = text.indexOf(PLACEHOLDER_START, position)) != -1) {
+        int end = text.indexOf(PLACEHOLDER_END, start + PLACEHOLDER_START.length());
+        if (end == -1) {
+          throw new IllegalStateException(format("Unterminated placeholder at position %s of [%s]", start, text));
+        }
+        String name = text.substring(start + PLACEHOLDER_START.length(), end).trim();
+        if (name.isEmpty()) {
+          throw new IllegalStateException(format("Empty placeholder at position %s of [%s]", start, text));
+        }
+        literals.add(text.substring(position, start));
+        placeholders.add(name);
+        position = end + PLACEHOLDER_END.length();
+      }
+      literals.add(text.substring(position));
+      return new Text(literals.toArray(new String[literals.size()]), placeholders.toArray(new String[placeholders.size()]));
+    }
+
+    boolean isConstant() {
+      return placeholders.length == 0;
+    }
+
+    String render(Map<String, String> data) {
+      if (isConstant()) {
+        return literals[0];
+      }
+      String[] values = new String[placeholders.length];
+      int length = literalsLength;
+      for (int i = 0; i < placeholders.length; i++) {
+        String value = data.get(placeholders[i]);
+        if (value == null) {
+          throw new IllegalArgumentException(format("No value was provided for the placeholder [%s]", placeholders[i]));
+        }
+        values[i] = value;
+        length += value.length();
+      }
+      StringBuilder rendered = new StringBuilder(length);
+      for (int i = 0; i < values.length; i++) {
+        rendered.append(literals[i]).append(values[i]);
+      }
+      return rendered.append(literals[values.length]).toString();
+    }
+  }
+}
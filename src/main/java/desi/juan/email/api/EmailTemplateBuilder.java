@@ -0,0 +1,237 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.api;
+
+import static desi.juan.email.api.EmailConstants.TEXT_PLAIN;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * Implementation of the builder design pattern to create a new {@link EmailTemplate} instance.
+ * <p>
+ * All the text values, except for the header names, can contain {@code ${name}} placeholders.
+ */
+public final class EmailTemplateBuilder {
+
+  private String subject = "[No Subject]";
+  private List<String> from = new ArrayList<>();
+  private List<String> to = new ArrayList<>();
+  private List<String> bcc = new ArrayList<>();
+  private List<String> cc = new ArrayList<>();
+  private Multimap<String, String> headers = ArrayListMultimap.create();
+  private List<String> replyTo = new ArrayList<>();
+  private List<EmailAttachment> attachments = new ArrayList<>();
+  private EmailBody body;
+
+  /**
+   * Hide constructor.
+   */
+  private EmailTemplateBuilder() {}
+
+  /**
+   * @return an instance of this {@link EmailTemplateBuilder}.
+   */
+  public static EmailTemplateBuilder newTemplate() {
+    return new EmailTemplateBuilder();
+  }
+
+  /**
+   * sets the subject of the template that is being built.
+   *
+   * @param subject the email subject to be set.
+   * @return this {@link EmailTemplateBuilder}
+   */
+  public EmailTemplateBuilder withSubject(String subject) {
+    this.subject = subject;
+    return this;
+  }
+
+  /**
+   * adds an email from address
+   *
+   * @param fromAddress the from address to be added.
+   * @return this {@link EmailTemplateBuilder}
+   */
+  public EmailTemplateBuilder from(String fromAddress) {
+    this.from.add(fromAddress);
+    return this;
+  }
+
+  /**
+   * adds a "to" (primary) recipient to the template that is being built, usually a placeholder i.e. {@code ${email}}.
+   *
+   * @param to the "to" address to be added.
+   * @return this {@link EmailTemplateBuilder}
+   */
+  public EmailTemplateBuilder to(String to) {
+    this.to.add(to);
+    return this;
+  }
+
+  /**
+   * adds "To" (primary) recipients to the template that is being built.
+   *
+   * @param toAddresses the "to" addresses to be added.
+   * @return this {@link EmailTemplateBuilder}
+   */
+  public EmailTemplateBuilder to(List<String> toAddresses) {
+    this.to.addAll(toAddresses);
+    return this;
+  }
+
+  /**
+   * adds a "Bcc" (blind carbon copy) recipient to the template that is being built.
+   *
+   * @param bcc the "bcc" address to be added.
+   * @return this {@link EmailTemplateBuilder}
+   */
+  public EmailTemplateBuilder bcc(String bcc) {
+    this.bcc.add(bcc);
+    return this;
+  }
+
+  /**
+   * adds "Bcc" (blind carbon copy) recipients to the template that is being built.
+   *
+   * @param bccAddresses the "bcc" addresses to be added.
+   * @return this {@link EmailTemplateBuilder}
+   */
+  public EmailTemplateBuilder bcc(List<String> bccAddresses) {
+    this.bcc.addAll(bccAddresses);
+    return this;
+  }
+
+  /**
+   * adds a single "Cc" (carbon copy) recipient to the template that is being built.
+   *
+   * @param cc the "cc" address to be set.
+   * @return this {@link EmailTemplateBuilder}
+   */
+  public EmailTemplateBuilder cc(String cc) {
+    this.cc.add(cc);
+    return this;
+  }
+
+  /**
+   * adds "Cc" (carbon copy) recipients to the template that is being built.
+   *
+   * @param ccAddresses the "cc" addresses to be set.
+   * @return this {@link EmailTemplateBuilder}
+   */
+  public EmailTemplateBuilder cc(List<String> ccAddresses) {
+    this.cc.addAll(ccAddresses);
+    return this;
+  }
+
+  /**
+   * sets additional headers to the template that is being built.
+   *
+   * @param headers the headers to be set.
+   * @return this {@link EmailTemplateBuilder}
+   */
+  public EmailTemplateBuilder withHeaders(Multimap<String, String> headers) {
+    this.headers.putAll(headers);
+    return this;
+  }
+
+  /**
+   * sets an additional header of the template that is being built.
+   *
+   * @param key the key name of the header.
+   * @param val the value of the header.
+   * @return this {@link EmailTemplateBuilder}
+   */
+  public EmailTemplateBuilder withHeader(String key, String val) {
+    this.headers.put(key, val);
+    return this;
+  }
+
+  /**
+   * adds "ReplyTo" addresses to the template that is being built.
+   *
+   * @param replyToAddresses the "replyTo" addresses to be set.
+   * @return this {@link EmailTemplateBuilder}
+   */
+  public EmailTemplateBuilder replyTo(List<String> replyToAddresses) {
+    this.replyTo = replyToAddresses;
+    return this;
+  }
+
+  /**
+   * sets the specified body to the template that is being built.
+   */
+  public EmailTemplateBuilder withBody(EmailBody body) {
+    this.body = body;
+    return this;
+  }
+
+  /**
+   * sets a plain text body to the template that is being built.
+   */
+  public EmailTemplateBuilder withBody(String body) {
+    this.body = new EmailBody(body, Charsets.UTF_8, TEXT_PLAIN);
+    return this;
+  }
+
+  /**
+   * sets a list of attachments shared by all the emails rendered from the template that is being built.
+   */
+  public EmailTemplateBuilder withAttachments(List<EmailAttachment> attachments) {
+    this.attachments.addAll(attachments);
+    return this;
+  }
+
+  /**
+   * adds an attachment shared by all the emails rendered from the template that is being built.
+   */
+  public EmailTemplateBuilder withAttachment(EmailAttachment attachment) {
+    this.attachments.add(attachment);
+    return this;
+  }
+
+  /**
+   * builds the new {@link EmailTemplate} instance, parsing all the placeholders and encoding the attachments.
+   */
+  public EmailTemplate build() {
+
+    if (body == null) {
+      throw new IllegalStateException("Cannot build an Email template with no body");
+    }
+
+    if (to.isEmpty()) {
+      throw new IllegalStateException("Cannot build an Email template with no TO address(es)");
+    }
+
+    if (from.isEmpty()) {
+      throw new IllegalStateException("Cannot build an Email template with no from address");
+    }
+
+    return new EmailTemplate(subject, from, to, bcc, cc, replyTo, body, attachments, headers);
+  }
+}
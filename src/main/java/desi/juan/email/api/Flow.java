@@ -0,0 +1,96 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.api;
+
+/**
+ * The interfaces of a reactive stream with backpressure, where a {@link Publisher} produces items for a {@link Subscriber}
+ * only as fast as the subscriber requests them through it's {@link Subscription}.
+ * <p>
+ * This is a copy of {@code java.util.concurrent.Flow}, which is not available in Java 8, the interfaces, their methods and the
+ * rules they follow are the same (see the Reactive Streams specification), so they can be bridged to the JDK ones or to
+ * {@code org.reactivestreams} by a trivial delegating adapter.
+ */
+public final class Flow {
+
+  /**
+   * Hide constructor.
+   */
+  private Flow() {}
+
+  /**
+   * A producer of items that are received by it's subscribers as they request them.
+   */
+  @FunctionalInterface
+  public interface Publisher<T> {
+
+    /**
+     * Adds the {@code subscriber}, which is notified through {@link Subscriber#onSubscribe(Subscription)} before receiving
+     * any item.
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+  }
+
+  /**
+   * A receiver of items, it's methods are called in sequence, never concurrently.
+   */
+  public interface Subscriber<T> {
+
+    /**
+     * Called before any other method of the subscriber, no items are received until they are requested through the
+     * {@code subscription}.
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Called with the next item, never more times than the amount of items requested.
+     */
+    void onNext(T item);
+
+    /**
+     * Called when the publisher failed, no other method is called afterwards.
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * Called when there are no more items, no other method is called afterwards.
+     */
+    void onComplete();
+  }
+
+  /**
+   * The link between a publisher and a subscriber.
+   */
+  public interface Subscription {
+
+    /**
+     * Adds {@code n} items to the amount of items the subscriber can receive, a non positive {@code n} signals an error.
+     */
+    void request(long n);
+
+    /**
+     * Stops the publisher from sending more items to the subscriber, items sent before the cancellation may still arrive.
+     */
+    void cancel();
+  }
+}
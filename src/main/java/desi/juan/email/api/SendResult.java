@@ -0,0 +1,130 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.api;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import desi.juan.email.internal.exception.SendEmailException;
+
+/**
+ * Represents the outcome of sending a single {@link Email}, carries the error that made the send fail if any.
+ * <p>
+ * The outcome is broken down by recipient: the ones that got the email, the ones that the server rejected for good and the
+ * ones that it rejected temporarily, which are the only ones worth sending the email to again.
+ */
+public final class SendResult {
+
+  /**
+   * The email that was sent.
+   */
+  private final Email email;
+
+  /**
+   * The error that made the send fail, null if the email was sent successfully.
+   */
+  private final SendEmailException error;
+
+  /**
+   * The recipients that got the email.
+   */
+  private final List<String> acceptedRecipients;
+
+  private SendResult(Email email, SendEmailException error, List<String> acceptedRecipients) {
+    this.email = email;
+    this.error = error;
+    this.acceptedRecipients = unmodifiableList(new ArrayList<>(acceptedRecipients));
+  }
+
+  /**
+   * Creates a result for an email that was accepted by the server for all it's To, Cc and Bcc recipients.
+   */
+  public static SendResult success(Email email) {
+    List<String> recipients = new ArrayList<>(email.getToAddresses());
+    recipients.addAll(email.getCcAddresses());
+    recipients.addAll(email.getBccAddresses());
+    return new SendResult(email, null, recipients);
+  }
+
+  /**
+   * Creates a result for an email that was accepted by the server for the provided {@code recipients}.
+   */
+  public static SendResult success(Email email, List<String> recipients) {
+    return new SendResult(email, null, recipients);
+  }
+
+  /**
+   * Creates a result for an email that could not be sent to all it's recipients, the recipients that got it, if any, are
+   * taken from the {@code error}.
+   */
+  public static SendResult failure(Email email, SendEmailException error) {
+    return new SendResult(email, error, error.getAcceptedRecipients());
+  }
+
+  /**
+   * @return the email that was sent.
+   */
+  public Email getEmail() {
+    return email;
+  }
+
+  /**
+   * @return true if the email was accepted by the server, false otherwise.
+   */
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  /**
+   * @return the recipients that got the email.
+   */
+  public List<String> getAcceptedRecipients() {
+    return acceptedRecipients;
+  }
+
+  /**
+   * @return the recipients that the server rejected with a permanent (5xx) reply.
+   */
+  public List<String> getPermanentlyRejectedRecipients() {
+    return error != null ? error.getPermanentlyRejectedRecipients() : emptyList();
+  }
+
+  /**
+   * @return the recipients that the server rejected temporarily, sending the email again to them may succeed.
+   */
+  public List<String> getTemporarilyRejectedRecipients() {
+    return error != null ? error.getTemporarilyRejectedRecipients() : emptyList();
+  }
+
+  /**
+   * @return the error that made the send fail, empty if the email was sent successfully.
+   */
+  public Optional<SendEmailException> getError() {
+    return Optional.ofNullable(error);
+  }
+}
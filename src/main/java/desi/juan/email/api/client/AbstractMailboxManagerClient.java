@@ -23,6 +23,8 @@
  */
 package desi.juan.email.api.client;
 
+import java.util.concurrent.CompletableFuture;
+
 import desi.juan.email.api.client.configuration.ClientConfiguration;
 import desi.juan.email.internal.EmailProtocol;
 import desi.juan.email.internal.commands.DeleteOperations;
@@ -52,7 +54,16 @@ class AbstractMailboxManagerClient {
                                               config.getConnectionTimeout(),
                                               config.getReadTimeout(),
                                               config.getWriteTimeout(),
-                                              config.getProperties());
+                                              config.getProperties(),
+                                              config.isConnectInBackground());
+  }
+
+  /**
+   * @return a future completed once the client is connected with the server, the client connects in the background if it's
+   *         configured to, otherwise it's already complete.
+   */
+  public CompletableFuture<Void> ready() {
+    return connection.ready();
   }
 
   public void disconnect() {
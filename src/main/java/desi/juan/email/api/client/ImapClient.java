@@ -31,15 +31,24 @@ import static javax.mail.Folder.READ_ONLY;
 import static javax.mail.Folder.READ_WRITE;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 import javax.mail.Folder;
 import javax.mail.UIDFolder;
 
 import desi.juan.email.api.Email;
 import desi.juan.email.api.EmailFlags.EmailFlag;
+import desi.juan.email.api.EmailPage;
+import desi.juan.email.api.Flow;
+import desi.juan.email.api.PageOrder;
 import desi.juan.email.api.client.configuration.ClientConfiguration;
+import desi.juan.email.api.sync.SyncResult;
+import desi.juan.email.api.sync.SyncStateStore;
 import desi.juan.email.internal.commands.MarkEmailCommand;
+import desi.juan.email.internal.commands.PageCursor;
+import desi.juan.email.internal.commands.RetrieveIterator;
 import desi.juan.email.internal.commands.RetrieveOperations;
+import desi.juan.email.internal.commands.RetrievePublisher;
 import desi.juan.email.internal.exception.EmailException;
 
 /**
@@ -77,6 +86,87 @@ public class ImapClient extends AbstractMailboxManagerClient {
     return retriever.retrieve(connection.getFolder(folder, READ_ONLY), readContent, numToRetrieve);
   }
 
+  /**
+   * Retrieves all the emails in the {@code folder} without reading their content, which is read from the server the first
+   * time the body or the attachments of each email are requested.
+   * <p>
+   * The content can only be read while the folder remains open, retrieving emails from another folder or disconnecting the
+   * client closes it.
+   */
+  public List<Email> retrieveLazily(String folder) {
+    return retrieveLazily(folder, RetrieveOperations.ALL_MESSAGES);
+  }
+
+  /**
+   * Retrieves the first {@code numToRetrieve} emails in the {@code folder} without reading their content, which is read
+   * from the server the first time the body or the attachments of each email are requested.
+   */
+  public List<Email> retrieveLazily(String folder, int numToRetrieve) {
+    return retriever.retrieveLazily(connection.getFolder(folder, READ_ONLY), numToRetrieve);
+  }
+
+  /**
+   * Retrieves the emails of the {@code folder} that arrived since the previous synchronization, whose state is kept in the
+   * {@code store}, or all of them the first time or when the server reassigned the unique ids of the folder.
+   * <p>
+   * Polling a folder this way only downloads the new emails instead of the whole folder each time. The state is only saved
+   * once the result is {@link SyncResult#commit() committed}, which should be done after the emails are processed so none
+   * is lost if the application fails before that. The state is kept by the URL of the folder, so many accounts can share the
+   * same store.
+   */
+  public SyncResult sync(String folder, boolean readContent, SyncStateStore store) {
+    return retriever.sync(connection.getFolder(folder, READ_ONLY), readContent, store);
+  }
+
+  /**
+   * Creates a lazy {@link Stream} of the emails in the {@code folder}, from the oldest to the newest, that fetches them from
+   * the server in windows of {@code windowSize} emails, the next window is fetched while the current one is consumed.
+   * <p>
+   * Closing the stream is mandatory, it's the only way to stop the background fetch of a stream that is not consumed until
+   * the end. A try-with-resources block is the simplest way to do it:
+   * <pre>
+   * try (Stream&lt;Email&gt; emails = client.stream("INBOX", false, 100)) {
+   *   emails.filter(email -&gt; email.getSubject().startsWith("Invoice")).forEach(this::process);
+   * }
+   * </pre>
+   */
+  public Stream<Email> stream(String folder, boolean readContent, int windowSize) {
+    return new RetrieveIterator(connection, folder, retriever, readContent, windowSize).stream();
+  }
+
+  /**
+   * Retrieves the first page of at most {@code limit} emails of the {@code folder}, starting from the oldest or the newest
+   * email depending on the {@code order}.
+   */
+  public EmailPage retrievePage(String folder, boolean readContent, int limit, PageOrder order) {
+    return retriever.retrievePage(connection.getFolder(folder, READ_ONLY), readContent, PageCursor.first(order), limit);
+  }
+
+  /**
+   * Retrieves a page of at most {@code limit} emails of the {@code folder} that continues after the email with the
+   * {@code uid}, the emails with greater ids when the {@code order} is oldest first, the ones with lower ids otherwise.
+   */
+  public EmailPage retrievePage(String folder, boolean readContent, long uid, int limit, PageOrder order) {
+    return retriever.retrievePage(connection.getFolder(folder, READ_ONLY), readContent, PageCursor.after(order, uid), limit);
+  }
+
+  /**
+   * Retrieves the page of at most {@code limit} emails of the {@code folder} that follows the page that returned the
+   * {@code continuationToken}, in the same order.
+   */
+  public EmailPage retrievePage(String folder, boolean readContent, String continuationToken, int limit) {
+    PageCursor cursor = PageCursor.decode(continuationToken);
+    return retriever.retrievePage(connection.getFolder(folder, READ_ONLY), readContent, cursor, limit);
+  }
+
+  /**
+   * Creates a {@link Flow.Publisher} of the emails in the {@code folder}, from the oldest to the newest, that fetches them
+   * from the server in batches of {@code batchSize} emails only as the subscribers request them.
+   */
+  public Flow.Publisher<Email> publisher(String folder, boolean readContent, int batchSize) {
+    return new RetrievePublisher(connection, folder, retriever, readContent, batchSize);
+  }
+
   public Email retrieveById(String folder, long id) {
     return retriever.retrieveById(getUIDFolder(folder, READ_ONLY), id);
   }
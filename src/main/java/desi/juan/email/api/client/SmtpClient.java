@@ -24,22 +24,47 @@
 package desi.juan.email.api.client;
 
 
+import static desi.juan.email.api.client.configuration.SmtpConfigurationBuilder.newSmtpConfiguration;
 import static desi.juan.email.internal.EmailProtocol.SMTP;
 import static desi.juan.email.internal.EmailProtocol.SMTPS;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import desi.juan.email.api.Email;
+import desi.juan.email.api.EmailSubscriber;
+import desi.juan.email.api.EmailTemplate;
+import desi.juan.email.api.Flow;
+import desi.juan.email.api.SendResult;
 import desi.juan.email.api.client.configuration.ClientConfiguration;
+import desi.juan.email.api.client.configuration.SmtpConfiguration;
 import desi.juan.email.api.security.TlsConfiguration;
+import desi.juan.email.internal.AttachmentCache;
+import desi.juan.email.internal.commands.AsyncSendCommand;
 import desi.juan.email.internal.commands.SendCommand;
+import desi.juan.email.internal.commands.SendSubscriber;
+import desi.juan.email.internal.connection.RelayBalancer;
 import desi.juan.email.internal.connection.SenderConnection;
+import desi.juan.email.internal.dkim.DkimSigner;
+import desi.juan.email.internal.exception.SendEmailException;
+import desi.juan.email.internal.spool.OutboundSpool;
 
 /**
  * Encapsulates all the functionality necessary to send emails through an SMTP server.
  * <p>
  * This class takes care of all low level details of interacting with an SMTP server and provides a
  * convenient higher level interface
+ * <p>
+ * A client can send through many relays, the sends are spread across them by weight and load, a relay that keeps failing is
+ * taken out of rotation until it's probed back, and a send that could not reach a relay is tried on the next one.
  */
 public class SmtpClient {
 
@@ -53,27 +78,206 @@ public class SmtpClient {
    */
   public static final String DEFAULT_SMTPS_PORT = "587";
 
-  private SenderConnection connection;
-  private SendCommand sendCommand = new SendCommand();
+  private RelayBalancer relays;
+  private SendCommand sendCommand;
+  private AsyncSendCommand asyncSendCommand;
+  private OutboundSpool spool;
+  private long sendTimeout;
+  private int asyncThreads;
+  private CompletableFuture<Void> ready;
 
   public SmtpClient(String username,
                     String password,
                     String host,
                     int port,
                     ClientConfiguration configuration) {
+    this(username, password, host, port, configuration, newSmtpConfiguration().build());
+  }
+
+  public SmtpClient(String username,
+                    String password,
+                    String host,
+                    int port,
+                    ClientConfiguration configuration,
+                    SmtpConfiguration smtpConfiguration) {
+    this(username, password, Collections.singletonList(new SmtpRelay(host, port)), configuration, smtpConfiguration);
+  }
+
+  /**
+   * Creates a client that sends through many relays, all of them share the same credentials and configuration.
+   */
+  public SmtpClient(String username,
+                    String password,
+                    List<SmtpRelay> relays,
+                    ClientConfiguration configuration,
+                    SmtpConfiguration smtpConfiguration) {
     Optional<TlsConfiguration> tls = configuration.getTlsConfig();
-    this.connection = new SenderConnection(tls.isPresent() ? SMTPS : SMTP,
+    List<SenderConnection> connections = new ArrayList<>(relays.size());
+    List<Integer> weights = new ArrayList<>(relays.size());
+    for (SmtpRelay relay : relays) {
+      connections.add(new SenderConnection(tls.isPresent() ? SMTPS : SMTP,
                                            username,
                                            password,
-                                           host,
-                                           port,
+                                           relay.getHost(),
+                                           relay.getPort(),
                                            configuration.getConnectionTimeout(),
                                            configuration.getReadTimeout(),
                                            configuration.getWriteTimeout(),
-                                           configuration.getProperties());
+                                           configuration.getProperties(),
+                                           smtpConfiguration));
+      weights.add(relay.getWeight());
+    }
+    this.relays = new RelayBalancer(connections, weights);
+    this.sendCommand = new SendCommand(new AttachmentCache(smtpConfiguration.getAttachmentCacheSize()),
+                                      smtpConfiguration.getMaxRecipientsPerTransaction(),
+                                      new DkimSigner(smtpConfiguration.getDkimConfigurations()));
+    this.asyncSendCommand = new AsyncSendCommand(sendCommand, smtpConfiguration);
+    this.sendTimeout = smtpConfiguration.getSendTimeout();
+    this.asyncThreads = smtpConfiguration.getAsyncThreads();
+    if (smtpConfiguration.getSpoolDirectory().isPresent()) {
+      this.spool = new OutboundSpool(sendCommand, this.relays, smtpConfiguration);
+    }
+    this.ready = CompletableFuture.allOf(connections.stream()
+                                           .map(connection -> connection.warmUp(smtpConfiguration.getWarmUpConnections()))
+                                           .toArray(CompletableFuture[]::new));
+  }
+
+  /**
+   * Connections are opened on demand, unless warm up connections are configured, in which case they are opened in the
+   * background when the client is created. Sends don't need to wait for them.
+   *
+   * @return a future completed once the warm up connections with all the relays are open, or completed exceptionally if
+   *         some of them could not be opened.
+   */
+  public CompletableFuture<Void> ready() {
+    return ready.thenApply(Function.identity());
   }
 
   public void send(Email email) {
-    sendCommand.send(connection, email);
+    sendCommand.send(relays, email);
+  }
+
+  /**
+   * Sends the same email to many {@code recipients} with Bcc semantics, the recipients don't see each other and the
+   * addresses in the email headers, i.e. a list address in the To header, don't get the email unless they are also one of the
+   * {@code recipients}.
+   * <p>
+   * The email is rendered once and the same payload is delivered in transactions of up to the max recipients per transaction
+   * set in the {@link SmtpConfiguration}, instead of rendering and encoding one message per recipient.
+   *
+   * @throws SendEmailException if the email was not sent to some of the recipients, the ones that got it and the ones that
+   *                            were rejected, permanently or temporarily, are available through the exception.
+   */
+  public void sendToEnvelope(Email email, Collection<String> recipients) {
+    sendCommand.sendToEnvelope(relays, email, recipients);
+  }
+
+  /**
+   * Sends all the {@code emails} through a single SMTP session with one of the relays.
+   * <p>
+   * Failures do not interrupt the batch, each email gets it's own {@link SendResult} so the caller can check which of them
+   * failed.
+   *
+   * @return the results of each send, in the same order of the provided {@code emails}.
+   */
+  public List<SendResult> sendAll(Collection<Email> emails) {
+    return sendCommand.sendAll(relays, emails);
+  }
+
+  /**
+   * Renders the {@code template} once for each of the provided data maps and sends all the rendered emails through a single
+   * SMTP session.
+   * <p>
+   * All the emails are rendered before sending the first one, so an incomplete data map fails the whole batch before anything
+   * is sent.
+   *
+   * @param template the template to be rendered.
+   * @param data     the placeholder values of each email to be sent.
+   * @return the results of each send, in the same order of the provided {@code data}.
+   * @throws IllegalArgumentException if one of the data maps does not have a value for a placeholder of the template.
+   */
+  public List<SendResult> sendAll(EmailTemplate template, Collection<? extends Map<String, String>> data) {
+    List<Email> emails = new ArrayList<>(data.size());
+    for (Map<String, String> values : data) {
+      emails.add(template.render(values));
+    }
+    return sendAll(emails);
+  }
+
+  /**
+   * Sends an email in background, returning immediately.
+   * <p>
+   * If there are too many emails waiting to be sent the returned future fails right away with a
+   * {@link desi.juan.email.internal.exception.SendEmailException}. The send times out after the send timeout set in the
+   * {@link SmtpConfiguration}, failing with a {@link desi.juan.email.internal.exception.SendTimeoutException}. A send that
+   * timed out while it was talking to the server is not aborted and may still deliver the email, retrying it is not
+   * idempotent.
+   *
+   * @return a future that completes once the email is accepted by the server.
+   */
+  public CompletableFuture<Void> sendAsync(Email email) {
+    return asyncSendCommand.sendAsync(relays, email, sendTimeout);
+  }
+
+  /**
+   * Sends an email in background, failing with a {@link desi.juan.email.internal.exception.SendTimeoutException} if the send
+   * does not complete within the specified {@code timeout}. Check if it
+   * {@link desi.juan.email.internal.exception.SendTimeoutException#mayBeDelivered() may be delivered} before retrying it.
+   *
+   * @return a future that completes once the email is accepted by the server.
+   */
+  public CompletableFuture<Void> sendAsync(Email email, long timeout, TimeUnit unit) {
+    return asyncSendCommand.sendAsync(relays, email, unit.toMillis(timeout));
+  }
+
+  /**
+   * Creates a {@link Flow.Subscriber} that sends the emails of a reactive pipeline in background, requesting more emails from
+   * upstream only when there is capacity to send them, as many as the async threads can send at the same time.
+   *
+   * @param listener notified with the outcome of each email, from the sender threads.
+   * @return the subscriber, which completes it's {@link EmailSubscriber#completion()} once all the emails are sent.
+   */
+  public EmailSubscriber subscriber(Consumer<SendResult> listener) {
+    return subscriber(asyncThreads, listener);
+  }
+
+  /**
+   * Creates a {@link Flow.Subscriber} that sends the emails of a reactive pipeline in background, with at most
+   * {@code maxInFlight} emails being sent at the same time. It should not be larger than the async queue capacity, emails
+   * that don't fit in the queue fail right away.
+   *
+   * @param listener notified with the outcome of each email, from the sender threads.
+   * @return the subscriber, which completes it's {@link EmailSubscriber#completion()} once all the emails are sent.
+   */
+  public EmailSubscriber subscriber(int maxInFlight, Consumer<SendResult> listener) {
+    return new SendSubscriber(this::sendAsync, maxInFlight, listener);
+  }
+
+  /**
+   * Persists the email in the spool directory set in the {@link SmtpConfiguration} and returns, the email is delivered in
+   * background and retried until it's accepted by the server or the max attempts are reached.
+   * <p>
+   * The emails that were not delivered when the client disconnects stay in the spool and are delivered once a new client is
+   * created with the same spool directory. The outcome of each email is notified to the spool listener if there is one.
+   *
+   * @throws SendEmailException if the client has no spool directory configured.
+   */
+  public void enqueue(Email email) {
+    if (spool == null) {
+      throw new SendEmailException("Cannot enqueue the email, there is no spool directory configured");
+    }
+    spool.enqueue(email);
+  }
+
+  /**
+   * Closes all the connections that this client keeps open with the SMTP server.
+   */
+  public void disconnect() {
+    if (spool != null) {
+      spool.close();
+    }
+    asyncSendCommand.shutdown();
+    sendCommand.shutdown();
+    relays.disconnect();
   }
 }
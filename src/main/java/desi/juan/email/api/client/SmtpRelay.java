@@ -0,0 +1,91 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.api.client;
+
+/**
+ * An SMTP server that a {@link SmtpClient} can send emails through, along with the share of the traffic it should get.
+ */
+public final class SmtpRelay {
+
+  /**
+   * The host name of the relay.
+   */
+  private final String host;
+
+  /**
+   * The port of the relay.
+   */
+  private final int port;
+
+  /**
+   * The share of the sends this relay gets compared with the other relays of the same client.
+   */
+  private final int weight;
+
+  /**
+   * Creates a relay with a weight of 1.
+   */
+  public SmtpRelay(String host, int port) {
+    this(host, port, 1);
+  }
+
+  /**
+   * @param weight the share of the sends that go through this relay, a relay with weight 2 gets twice the sends of a relay
+   *               with weight 1.
+   */
+  public SmtpRelay(String host, int port, int weight) {
+    if (weight < 1) {
+      throw new IllegalArgumentException("The weight of a relay must be at least 1, got " + weight);
+    }
+    this.host = host;
+    this.port = port;
+    this.weight = weight;
+  }
+
+  /**
+   * @return the host name of the relay.
+   */
+  public String getHost() {
+    return host;
+  }
+
+  /**
+   * @return the port of the relay.
+   */
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * @return the share of the sends that go through this relay.
+   */
+  public int getWeight() {
+    return weight;
+  }
+
+  @Override
+  public String toString() {
+    return host + ":" + port;
+  }
+}
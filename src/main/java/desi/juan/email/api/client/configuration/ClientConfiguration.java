@@ -42,6 +42,7 @@ public class ClientConfiguration {
   private final long readTimeout;
   private final TlsConfiguration tlsConfig;
   private final long writeTimeout;
+  private final boolean connectInBackground;
 
   /**
    * Default timeouts are 10 seconds
@@ -56,11 +57,25 @@ public class ClientConfiguration {
                             long readTimeout,
                             TlsConfiguration tlsConfig,
                             long writeTimeout) {
+    this(connectionTimeout, properties, readTimeout, tlsConfig, writeTimeout, false);
+  }
+
+  /**
+   * @param connectInBackground if the mailbox clients should connect in the background instead of while they are created,
+   *                            their operations wait until the connection is ready.
+   */
+  public ClientConfiguration(long connectionTimeout,
+                            Map<String, String> properties,
+                            long readTimeout,
+                            TlsConfiguration tlsConfig,
+                            long writeTimeout,
+                            boolean connectInBackground) {
     this.connectionTimeout = connectionTimeout;
     this.properties = ImmutableMap.copyOf(properties);
     this.readTimeout = readTimeout;
     this.tlsConfig = tlsConfig;
     this.writeTimeout = writeTimeout;
+    this.connectInBackground = connectInBackground;
   }
 
   public long getConnectionTimeout() {
@@ -82,4 +97,8 @@ public class ClientConfiguration {
   public long getWriteTimeout() {
     return writeTimeout;
   }
+
+  public boolean isConnectInBackground() {
+    return connectInBackground;
+  }
 }
@@ -0,0 +1,278 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.api.client.configuration;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+import desi.juan.email.api.SendResult;
+import desi.juan.email.api.security.DkimConfiguration;
+
+/**
+ * This class represents the configuration of the sending side of an {@code SmtpClient}, it defines how the connections with the
+ * SMTP server are pooled and reused between sends.
+ * <p>
+ * Instances are created through the {@link SmtpConfigurationBuilder}.
+ */
+public class SmtpConfiguration {
+
+  private final int maxConnections;
+  private final long maxIdleTime;
+  private final int maxMessagesPerConnection;
+  private final long maxWaitTime;
+  private final int asyncThreads;
+  private final int asyncQueueCapacity;
+  private final long sendTimeout;
+  private final ExecutorService executor;
+  private final long attachmentCacheSize;
+  private final Path spoolDirectory;
+  private final int spoolMaxAttempts;
+  private final long spoolRetryDelay;
+  private final long spoolMaxRetryDelay;
+  private final Consumer<SendResult> spoolListener;
+  private final double maxMessagesPerSecond;
+  private final double maxRecipientsPerSecond;
+  private final boolean adaptiveConcurrency;
+  private final int relayFailureThreshold;
+  private final long relayRetryTime;
+  private final int maxRecipientsPerTransaction;
+  private final int bdatChunkSize;
+  private final List<DkimConfiguration> dkimConfigurations;
+  private final int warmUpConnections;
+
+  SmtpConfiguration(int maxConnections,
+                    long maxIdleTime,
+                    int maxMessagesPerConnection,
+                    long maxWaitTime,
+                    int asyncThreads,
+                    int asyncQueueCapacity,
+                    long sendTimeout,
+                    ExecutorService executor,
+                    long attachmentCacheSize,
+                    Path spoolDirectory,
+                    int spoolMaxAttempts,
+                    long spoolRetryDelay,
+                    long spoolMaxRetryDelay,
+                    Consumer<SendResult> spoolListener,
+                    double maxMessagesPerSecond,
+                    double maxRecipientsPerSecond,
+                    boolean adaptiveConcurrency,
+                    int relayFailureThreshold,
+                    long relayRetryTime,
+                    int maxRecipientsPerTransaction,
+                    int bdatChunkSize,
+                    List<DkimConfiguration> dkimConfigurations,
+                    int warmUpConnections) {
+    this.maxConnections = maxConnections;
+    this.maxIdleTime = maxIdleTime;
+    this.maxMessagesPerConnection = maxMessagesPerConnection;
+    this.maxWaitTime = maxWaitTime;
+    this.asyncThreads = asyncThreads;
+    this.asyncQueueCapacity = asyncQueueCapacity;
+    this.sendTimeout = sendTimeout;
+    this.executor = executor;
+    this.attachmentCacheSize = attachmentCacheSize;
+    this.spoolDirectory = spoolDirectory;
+    this.spoolMaxAttempts = spoolMaxAttempts;
+    this.spoolRetryDelay = spoolRetryDelay;
+    this.spoolMaxRetryDelay = spoolMaxRetryDelay;
+    this.spoolListener = spoolListener;
+    this.maxMessagesPerSecond = maxMessagesPerSecond;
+    this.maxRecipientsPerSecond = maxRecipientsPerSecond;
+    this.adaptiveConcurrency = adaptiveConcurrency;
+    this.relayFailureThreshold = relayFailureThreshold;
+    this.relayRetryTime = relayRetryTime;
+    this.maxRecipientsPerTransaction = maxRecipientsPerTransaction;
+    this.bdatChunkSize = bdatChunkSize;
+    this.dkimConfigurations = dkimConfigurations;
+    this.warmUpConnections = warmUpConnections;
+  }
+
+  /**
+   * @return the maximum number of connections that can be opened with the SMTP server at the same time.
+   */
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * @return the time in milliseconds that a connection can stay idle in the pool before being closed.
+   */
+  public long getMaxIdleTime() {
+    return maxIdleTime;
+  }
+
+  /**
+   * @return the amount of messages that can be sent through a single connection before it gets recycled.
+   */
+  public int getMaxMessagesPerConnection() {
+    return maxMessagesPerConnection;
+  }
+
+  /**
+   * @return the time in milliseconds that a send waits for a free connection when all of them are in use.
+   */
+  public long getMaxWaitTime() {
+    return maxWaitTime;
+  }
+
+  /**
+   * @return the number of threads that send the emails submitted asynchronously.
+   */
+  public int getAsyncThreads() {
+    return asyncThreads;
+  }
+
+  /**
+   * @return the amount of emails that can be pending to be sent asynchronously before new submissions get rejected.
+   */
+  public int getAsyncQueueCapacity() {
+    return asyncQueueCapacity;
+  }
+
+  /**
+   * @return the time in milliseconds an asynchronous send has to complete before failing, 0 means no timeout.
+   */
+  public long getSendTimeout() {
+    return sendTimeout;
+  }
+
+  /**
+   * @return the executor that runs the asynchronous sends, if not present the client uses it's own sender threads.
+   */
+  public Optional<ExecutorService> getExecutor() {
+    return Optional.ofNullable(executor);
+  }
+
+  /**
+   * @return the maximum amount of bytes of encoded attachments that are kept in memory to be reused by other emails, 0 means
+   *         that attachments are encoded again for each email.
+   */
+  public long getAttachmentCacheSize() {
+    return attachmentCacheSize;
+  }
+
+  /**
+   * @return the directory where the emails that are enqueued for delivery are persisted, if not present emails can't be
+   *         enqueued.
+   */
+  public Optional<Path> getSpoolDirectory() {
+    return Optional.ofNullable(spoolDirectory);
+  }
+
+  /**
+   * @return the maximum amount of times the delivery of an enqueued email is attempted before giving up.
+   */
+  public int getSpoolMaxAttempts() {
+    return spoolMaxAttempts;
+  }
+
+  /**
+   * @return the time in milliseconds to wait before the first retry of an enqueued email, the delay doubles with each failed
+   *         attempt.
+   */
+  public long getSpoolRetryDelay() {
+    return spoolRetryDelay;
+  }
+
+  /**
+   * @return the maximum time in milliseconds to wait between two delivery attempts of an enqueued email.
+   */
+  public long getSpoolMaxRetryDelay() {
+    return spoolMaxRetryDelay;
+  }
+
+  /**
+   * @return the listener notified with the final outcome of each enqueued email.
+   */
+  public Optional<Consumer<SendResult>> getSpoolListener() {
+    return Optional.ofNullable(spoolListener);
+  }
+
+  /**
+   * @return the maximum amount of messages per second sent to the SMTP server, 0 means no limit.
+   */
+  public double getMaxMessagesPerSecond() {
+    return maxMessagesPerSecond;
+  }
+
+  /**
+   * @return the maximum amount of recipients per second sent to the SMTP server, 0 means no limit.
+   */
+  public double getMaxRecipientsPerSecond() {
+    return maxRecipientsPerSecond;
+  }
+
+  /**
+   * @return true if the amount of connections used at the same time adapts to the replies of the server.
+   */
+  public boolean isAdaptiveConcurrency() {
+    return adaptiveConcurrency;
+  }
+
+  /**
+   * @return the amount of consecutive failures after which a relay stops receiving sends.
+   */
+  public int getRelayFailureThreshold() {
+    return relayFailureThreshold;
+  }
+
+  /**
+   * @return the time in milliseconds a failing relay stays out of rotation before it's probed again.
+   */
+  public long getRelayRetryTime() {
+    return relayRetryTime;
+  }
+
+  /**
+   * @return the maximum amount of recipients sent in a single SMTP transaction, 0 means no limit.
+   */
+  public int getMaxRecipientsPerTransaction() {
+    return maxRecipientsPerTransaction;
+  }
+
+  /**
+   * @return the size in bytes of the chunks used to send messages with BDAT, 0 means BDAT is not used.
+   */
+  public int getBdatChunkSize() {
+    return bdatChunkSize;
+  }
+
+  /**
+   * @return the DKIM configurations of the domains whose emails are signed, empty if emails are not signed.
+   */
+  public List<DkimConfiguration> getDkimConfigurations() {
+    return dkimConfigurations;
+  }
+
+  /**
+   * @return the amount of connections opened with each SMTP relay in the background when the client is created.
+   */
+  public int getWarmUpConnections() {
+    return warmUpConnections;
+  }
+}
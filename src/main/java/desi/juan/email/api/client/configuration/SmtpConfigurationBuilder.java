@@ -0,0 +1,431 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.api.client.configuration;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+import com.google.common.collect.ImmutableList;
+import desi.juan.email.api.SendResult;
+import desi.juan.email.api.security.DkimConfiguration;
+
+/**
+ * Implementation of the builder design pattern to create a new {@link SmtpConfiguration} instance.
+ */
+public final class SmtpConfigurationBuilder {
+
+  private int maxConnections = 8;
+  private long maxIdleTime = 60000;
+  private int maxMessagesPerConnection = 100;
+  private long maxWaitTime = 10000;
+  private int asyncThreads = 8;
+  private int asyncQueueCapacity = 1000;
+  private long sendTimeout = 0;
+  private ExecutorService executor;
+  private long attachmentCacheSize = 0;
+  private Path spoolDirectory;
+  private int spoolMaxAttempts = 10;
+  private long spoolRetryDelay = 1000;
+  private long spoolMaxRetryDelay = 600000;
+  private Consumer<SendResult> spoolListener;
+  private double maxMessagesPerSecond = 0;
+  private double maxRecipientsPerSecond = 0;
+  private boolean adaptiveConcurrency = true;
+  private int relayFailureThreshold = 5;
+  private long relayRetryTime = 30000;
+  private int maxRecipientsPerTransaction = 100;
+  private int bdatChunkSize = 1048576;
+  private int warmUpConnections = 0;
+  private final List<DkimConfiguration> dkimConfigurations = new ArrayList<>();
+
+  /**
+   * Hide constructor.
+   */
+  private SmtpConfigurationBuilder() {}
+
+  /**
+   * @return an instance of this {@link SmtpConfigurationBuilder} with the default values set.
+   */
+  public static SmtpConfigurationBuilder newSmtpConfiguration() {
+    return new SmtpConfigurationBuilder();
+  }
+
+  /**
+   * sets the maximum number of connections that can be opened with the SMTP server at the same time, defaults to 8.
+   *
+   * @param maxConnections the maximum number of connections.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+    return this;
+  }
+
+  /**
+   * sets the time in milliseconds that a connection can stay idle before being closed, defaults to 60 seconds.
+   *
+   * @param maxIdleTime the maximum idle time.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withMaxIdleTime(long maxIdleTime) {
+    this.maxIdleTime = maxIdleTime;
+    return this;
+  }
+
+  /**
+   * sets the amount of messages that can be sent through a single connection before it gets recycled, defaults to 100.
+   *
+   * @param maxMessagesPerConnection the maximum amount of messages per connection.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withMaxMessagesPerConnection(int maxMessagesPerConnection) {
+    this.maxMessagesPerConnection = maxMessagesPerConnection;
+    return this;
+  }
+
+  /**
+   * sets the time in milliseconds that a send waits for a free connection when all of them are in use, defaults to 10 seconds.
+   *
+   * @param maxWaitTime the maximum wait time.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withMaxWaitTime(long maxWaitTime) {
+    this.maxWaitTime = maxWaitTime;
+    return this;
+  }
+
+  /**
+   * sets the number of threads that send the emails submitted asynchronously, defaults to 8.
+   *
+   * @param asyncThreads the number of sender threads.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withAsyncThreads(int asyncThreads) {
+    this.asyncThreads = asyncThreads;
+    return this;
+  }
+
+  /**
+   * sets the amount of emails that can be pending to be sent asynchronously, waiting or in flight, once the limit is reached
+   * new asynchronous sends are rejected. Defaults to 1000.
+   *
+   * @param asyncQueueCapacity the capacity of the asynchronous send queue.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withAsyncQueueCapacity(int asyncQueueCapacity) {
+    this.asyncQueueCapacity = asyncQueueCapacity;
+    return this;
+  }
+
+  /**
+   * sets the time in milliseconds an asynchronous send has to complete before failing, defaults to 0 (no timeout).
+   *
+   * @param sendTimeout the send timeout.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withSendTimeout(long sendTimeout) {
+    this.sendTimeout = sendTimeout;
+    return this;
+  }
+
+  /**
+   * sets the executor that runs the asynchronous sends instead of the client's own sender threads, the executor is not shut
+   * down when the client disconnects.
+   * <p>
+   * On Java 21+ a virtual thread per task executor can be used to send without holding platform threads while waiting for
+   * the server.
+   *
+   * @param executor the executor for asynchronous sends.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withExecutor(ExecutorService executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * sets the maximum amount of bytes of encoded attachments that are kept in memory to be reused by other emails, the least
+   * recently used ones are discarded first. Attachments are reused by instance, so the cache only pays off when the same
+   * {@link desi.juan.email.api.EmailAttachment} is sent with many emails, otherwise the attachments are encoded while they
+   * are written. Defaults to 0, which disables the cache.
+   *
+   * @param attachmentCacheSize the attachment cache size.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withAttachmentCacheSize(long attachmentCacheSize) {
+    this.attachmentCacheSize = attachmentCacheSize;
+    return this;
+  }
+
+  /**
+   * sets the directory where the emails enqueued for a later delivery are persisted until they are accepted by the server,
+   * the emails that were not delivered yet when the client disconnects are delivered once a client is created again with the
+   * same directory. By default there is no spool and emails can only be sent directly.
+   *
+   * @param spoolDirectory the spool directory.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withSpoolDirectory(Path spoolDirectory) {
+    this.spoolDirectory = spoolDirectory;
+    return this;
+  }
+
+  /**
+   * sets the maximum amount of times the delivery of an enqueued email is attempted before giving up, defaults to 10.
+   *
+   * @param spoolMaxAttempts the spool max attempts.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withSpoolMaxAttempts(int spoolMaxAttempts) {
+    this.spoolMaxAttempts = spoolMaxAttempts;
+    return this;
+  }
+
+  /**
+   * sets the time in milliseconds to wait before retrying the delivery of an enqueued email for the first time, the delay
+   * doubles after each failed attempt. Defaults to 1 second.
+   *
+   * @param spoolRetryDelay the spool retry delay.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withSpoolRetryDelay(long spoolRetryDelay) {
+    this.spoolRetryDelay = spoolRetryDelay;
+    return this;
+  }
+
+  /**
+   * sets the maximum time in milliseconds to wait between two delivery attempts of an enqueued email, defaults to 10 minutes.
+   *
+   * @param spoolMaxRetryDelay the spool max retry delay.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withSpoolMaxRetryDelay(long spoolMaxRetryDelay) {
+    this.spoolMaxRetryDelay = spoolMaxRetryDelay;
+    return this;
+  }
+
+  /**
+   * sets a listener that is notified once an enqueued email is delivered or once the client gives up on it, the listener is
+   * called from the spool delivery thread.
+   *
+   * @param spoolListener the spool listener.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withSpoolListener(Consumer<SendResult> spoolListener) {
+    this.spoolListener = spoolListener;
+    return this;
+  }
+
+  /**
+   * sets the maximum amount of messages per second sent to the SMTP server, sends that exceed the rate wait until they can
+   * go out instead of being rejected by the server. Defaults to 0, no limit.
+   *
+   * @param maxMessagesPerSecond the max messages per second.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withMaxMessagesPerSecond(double maxMessagesPerSecond) {
+    this.maxMessagesPerSecond = maxMessagesPerSecond;
+    return this;
+  }
+
+  /**
+   * sets the maximum amount of recipients per second sent to the SMTP server, counting all the to, cc and bcc recipients of
+   * each message. Sends that exceed the rate wait until they can go out. Defaults to 0, no limit.
+   *
+   * @param maxRecipientsPerSecond the max recipients per second.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withMaxRecipientsPerSecond(double maxRecipientsPerSecond) {
+    this.maxRecipientsPerSecond = maxRecipientsPerSecond;
+    return this;
+  }
+
+  /**
+   * sets if the amount of connections used at the same time adapts to the replies of the server, halving it when the server
+   * throttles the sends or drops connections and growing it back one by one while sends succeed, never exceeding the max
+   * connections. Defaults to true.
+   *
+   * @param adaptiveConcurrency the adaptive concurrency.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withAdaptiveConcurrency(boolean adaptiveConcurrency) {
+    this.adaptiveConcurrency = adaptiveConcurrency;
+    return this;
+  }
+
+  /**
+   * sets the amount of consecutive connection failures or throttled sends after which a relay stops receiving sends, only
+   * used when the client has more than one relay. Defaults to 5.
+   *
+   * @param relayFailureThreshold the relay failure threshold.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withRelayFailureThreshold(int relayFailureThreshold) {
+    this.relayFailureThreshold = relayFailureThreshold;
+    return this;
+  }
+
+  /**
+   * sets the time in milliseconds a failing relay stays out of rotation before a single send is let through to probe it, if
+   * the probe succeeds the relay gets back in rotation. Defaults to 30 seconds.
+   *
+   * @param relayRetryTime the relay retry time.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withRelayRetryTime(long relayRetryTime) {
+    this.relayRetryTime = relayRetryTime;
+    return this;
+  }
+
+  /**
+   * sets the maximum amount of recipients sent in a single SMTP transaction, emails with more recipients are sent as many
+   * transactions that share the same rendered message, in parallel over the pooled connections. Most servers reject the
+   * recipients beyond 50 to 100 per transaction. Defaults to 100, 0 means no limit.
+   *
+   * @param maxRecipientsPerTransaction the max recipients per transaction.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withMaxRecipientsPerTransaction(int maxRecipientsPerTransaction) {
+    this.maxRecipientsPerTransaction = maxRecipientsPerTransaction;
+    return this;
+  }
+
+  /**
+   * sets the size in bytes of the chunks used to send messages with BDAT when the server supports CHUNKING, which writes the
+   * message as is instead of dot-stuffing it. If the server also supports BINARYMIME the attachments are sent unencoded.
+   * Defaults to 1MB, 0 disables BDAT.
+   *
+   * @param bdatChunkSize the bdat chunk size.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withBdatChunkSize(int bdatChunkSize) {
+    this.bdatChunkSize = bdatChunkSize;
+    return this;
+  }
+
+  /**
+   * adds the DKIM configuration of a domain, emails sent from that domain, or one of it's subdomains, are DKIM signed with
+   * it's key. Can be called once per domain, defaults to no signing.
+   *
+   * @param dkimConfiguration the DKIM configuration of the domain.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withDkim(DkimConfiguration dkimConfiguration) {
+    this.dkimConfigurations.add(dkimConfiguration);
+    return this;
+  }
+
+  /**
+   * sets the amount of connections opened with each SMTP relay in the background when the client is created, so the first
+   * sends don't pay for the connection, TLS handshake and authentication. It's bounded by the max connections and the
+   * client's {@code ready()} future tells when they are open. Defaults to 0, connections are opened on demand.
+   *
+   * @param warmUpConnections the warm up connections.
+   * @return this {@link SmtpConfigurationBuilder}
+   */
+  public SmtpConfigurationBuilder withWarmUpConnections(int warmUpConnections) {
+    this.warmUpConnections = warmUpConnections;
+    return this;
+  }
+
+  /**
+   * builds the new {@link SmtpConfiguration} instance.
+   */
+  public SmtpConfiguration build() {
+    if (maxConnections < 1) {
+      throw new IllegalStateException("Cannot build an SMTP configuration with less than one connection");
+    }
+
+    if (maxMessagesPerConnection < 1) {
+      throw new IllegalStateException("Cannot build an SMTP configuration with less than one message per connection");
+    }
+
+    if (asyncThreads < 1) {
+      throw new IllegalStateException("Cannot build an SMTP configuration with less than one async thread");
+    }
+
+    if (asyncQueueCapacity < 1) {
+      throw new IllegalStateException("Cannot build an SMTP configuration with an async queue capacity less than one");
+    }
+
+    if (attachmentCacheSize < 0) {
+      throw new IllegalStateException("Cannot build an SMTP configuration with a negative attachment cache size");
+    }
+
+    if (spoolMaxAttempts < 1) {
+      throw new IllegalStateException("Cannot build an SMTP configuration with less than one spool delivery attempt");
+    }
+
+    if (spoolRetryDelay < 0 || spoolMaxRetryDelay < spoolRetryDelay) {
+      throw new IllegalStateException("Cannot build an SMTP configuration with invalid spool retry delays");
+    }
+
+    if (maxMessagesPerSecond < 0 || maxRecipientsPerSecond < 0) {
+      throw new IllegalStateException("Cannot build an SMTP configuration with a negative send rate");
+    }
+
+    if (relayFailureThreshold < 1) {
+      throw new IllegalStateException("Cannot build an SMTP configuration with a relay failure threshold less than one");
+    }
+
+    if (maxRecipientsPerTransaction < 0) {
+      throw new IllegalStateException("Cannot build an SMTP configuration with negative max recipients per transaction");
+    }
+
+    if (bdatChunkSize < 0) {
+      throw new IllegalStateException("Cannot build an SMTP configuration with a negative BDAT chunk size");
+    }
+
+    if (warmUpConnections < 0) {
+      throw new IllegalStateException("Cannot build an SMTP configuration with a negative amount of warm up connections");
+    }
+
+    return new SmtpConfiguration(maxConnections,
+                                 maxIdleTime,
+                                 maxMessagesPerConnection,
+                                 maxWaitTime,
+                                 asyncThreads,
+                                 asyncQueueCapacity,
+                                 sendTimeout,
+                                 executor,
+                                 attachmentCacheSize,
+                                 spoolDirectory,
+                                 spoolMaxAttempts,
+                                 spoolRetryDelay,
+                                 spoolMaxRetryDelay,
+                                 spoolListener,
+                                 maxMessagesPerSecond,
+                                 maxRecipientsPerSecond,
+                                 adaptiveConcurrency,
+                                 relayFailureThreshold,
+                                 relayRetryTime,
+                                 maxRecipientsPerTransaction,
+                                 bdatChunkSize,
+                                 ImmutableList.copyOf(dkimConfigurations),
+                                 warmUpConnections);
+  }
+}
@@ -0,0 +1,102 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.api.security;
+
+import java.util.List;
+
+/**
+ * This class represents the configuration used to DKIM sign (RFC 6376) the emails sent from a domain.
+ * <p>
+ * Instances are created through the {@link DkimConfigurationBuilder}.
+ */
+public final class DkimConfiguration {
+
+  private final String domain;
+  private final String selector;
+  private final String privateKey;
+  private final DkimCanonicalization headerCanonicalization;
+  private final DkimCanonicalization bodyCanonicalization;
+  private final List<String> signedHeaders;
+
+  DkimConfiguration(String domain,
+                    String selector,
+                    String privateKey,
+                    DkimCanonicalization headerCanonicalization,
+                    DkimCanonicalization bodyCanonicalization,
+                    List<String> signedHeaders) {
+    this.domain = domain;
+    this.selector = selector;
+    this.privateKey = privateKey;
+    this.headerCanonicalization = headerCanonicalization;
+    this.bodyCanonicalization = bodyCanonicalization;
+    this.signedHeaders = signedHeaders;
+  }
+
+  /**
+   * @return the signing domain, the {@code d=} tag of the signature.
+   */
+  public String getDomain() {
+    return domain;
+  }
+
+  /**
+   * @return the selector under the signing domain where the public key is published, the {@code s=} tag of the signature.
+   */
+  public String getSelector() {
+    return selector;
+  }
+
+  /**
+   * @return the PKCS#8 RSA private key used to sign, PEM or plain base64 encoded.
+   */
+  public String getPrivateKey() {
+    return privateKey;
+  }
+
+  /**
+   * @return the canonicalization applied to the headers before hashing them.
+   */
+  public DkimCanonicalization getHeaderCanonicalization() {
+    return headerCanonicalization;
+  }
+
+  /**
+   * @return the canonicalization applied to the body before hashing it.
+   */
+  public DkimCanonicalization getBodyCanonicalization() {
+    return bodyCanonicalization;
+  }
+
+  /**
+   * @return the names of the headers covered by the signature, when present in the email.
+   */
+  public List<String> getSignedHeaders() {
+    return signedHeaders;
+  }
+
+  @Override
+  public String toString() {
+    return domain + " (" + selector + ")";
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.api.sync;
+
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import desi.juan.email.api.Email;
+
+/**
+ * The emails retrieved by a synchronization of a folder, the ones that arrived since the previous synchronization or all the
+ * emails of the folder when it was synchronized from scratch.
+ * <p>
+ * The new state of the folder is not saved until the result is {@link #commit() committed}, which should be done once the
+ * emails are processed. If the application fails before that the next synchronization returns the same emails again, so
+ * each email is processed at least once.
+ */
+public final class SyncResult {
+
+  /**
+   * The retrieved emails, from the oldest to the newest.
+   */
+  private final List<Email> emails;
+
+  /**
+   * If all the emails of the folder were retrieved instead of only the new ones.
+   */
+  private final boolean fullSync;
+
+  /**
+   * The state of the folder after this synchronization.
+   */
+  private final SyncState state;
+
+  /**
+   * The store where the state is saved once the result is committed, under the {@link #key}.
+   */
+  private final SyncStateStore store;
+  private final String key;
+
+  public SyncResult(List<Email> emails, boolean fullSync, SyncState state, SyncStateStore store, String key) {
+    this.emails = unmodifiableList(new ArrayList<>(emails));
+    this.fullSync = fullSync;
+    this.state = state;
+    this.store = store;
+    this.key = key;
+  }
+
+  /**
+   * @return the retrieved emails, from the oldest to the newest.
+   */
+  public List<Email> getEmails() {
+    return emails;
+  }
+
+  /**
+   * @return true if all the emails of the folder were retrieved, because it was never synchronized before or it's
+   *         UIDVALIDITY changed, false if only the emails that arrived since the previous synchronization were.
+   */
+  public boolean isFullSync() {
+    return fullSync;
+  }
+
+  /**
+   * @return the state of the folder after this synchronization, the one saved in the store once the result is committed.
+   */
+  public SyncState getState() {
+    return state;
+  }
+
+  /**
+   * @return the key of the folder in the store, the URL of the folder which identifies the account it belongs to as well,
+   *         i.e. {@code imap://goku@imap.dbz.com:993/INBOX}.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Saves the state of the folder after this synchronization in the store, so the next synchronization only retrieves the
+   * emails that arrived after the ones of this result.
+   */
+  public void commit() {
+    store.save(key, state);
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.api.sync;
+
+/**
+ * The point up to which the emails of a folder were synchronized: the UIDVALIDITY of the folder and the highest unique id of
+ * the emails that were already retrieved from it.
+ * <p>
+ * The unique ids of a folder only grow, so every email with a greater id arrived after the last synchronization, as long as
+ * the UIDVALIDITY of the folder remains the same. A different UIDVALIDITY means that the server reassigned the ids and the
+ * folder must be synchronized from scratch.
+ */
+public final class SyncState {
+
+  /**
+   * The UIDVALIDITY of the folder when it was synchronized.
+   */
+  private final long uidValidity;
+
+  /**
+   * The highest unique id of the emails that were retrieved, 0 if none was.
+   */
+  private final long lastUid;
+
+  public SyncState(long uidValidity, long lastUid) {
+    this.uidValidity = uidValidity;
+    this.lastUid = lastUid;
+  }
+
+  /**
+   * @return the UIDVALIDITY of the folder when it was synchronized.
+   */
+  public long getUidValidity() {
+    return uidValidity;
+  }
+
+  /**
+   * @return the highest unique id of the emails that were retrieved, 0 if none was.
+   */
+  public long getLastUid() {
+    return lastUid;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SyncState)) {
+      return false;
+    }
+    SyncState other = (SyncState) o;
+    return uidValidity == other.uidValidity && lastUid == other.lastUid;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Long.hashCode(uidValidity) + Long.hashCode(lastUid);
+  }
+
+  @Override
+  public String toString() {
+    return "SyncState{uidValidity=" + uidValidity + ", lastUid=" + lastUid + "}";
+  }
+}
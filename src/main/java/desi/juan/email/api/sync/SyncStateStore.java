@@ -0,0 +1,48 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.api.sync;
+
+import java.util.Optional;
+
+/**
+ * Keeps the {@link SyncState} of each synchronized folder between synchronizations.
+ * <p>
+ * Folders are identified by a key made of their URL, which includes the protocol, the user, the host and the port of the
+ * account, i.e. {@code imap://goku@imap.dbz.com:993/INBOX}, so many accounts can share the same store.
+ * <p>
+ * Implementations decide where the states live, a file or a database table lets the synchronization continue after the
+ * application restarts, {@link InMemorySyncStateStore} only for as long as it runs.
+ */
+public interface SyncStateStore {
+
+  /**
+   * @return the state of the last synchronization of the folder with the {@code key}, empty if it was never synchronized.
+   */
+  Optional<SyncState> load(String key);
+
+  /**
+   * Stores the state of the folder with the {@code key} after it was synchronized, replacing the previous one.
+   */
+  void save(String key, SyncState state);
+}
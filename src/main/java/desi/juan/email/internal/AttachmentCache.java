@@ -0,0 +1,106 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import desi.juan.email.api.EmailAttachment;
+import desi.juan.email.internal.exception.EmailException;
+
+/**
+ * Keeps the encoded form of the attachments that were already sent, so an attachment that is sent with many emails is only
+ * encoded once.
+ * <p>
+ * Attachments are identified by instance: reusing the same {@link EmailAttachment} across emails is what makes its encoded
+ * form reusable, an attachment created for each email is encoded in memory for nothing. The cache is bounded by the total
+ * size of the encoded attachments it keeps, the least recently used ones are discarded first, and the ones whose attachment
+ * is no longer referenced by the application are discarded by the garbage collector, the encoded form does not reference
+ * the attachment.
+ */
+public final class AttachmentCache {
+
+  /**
+   * base64 encodes 3 bytes into 4 and breaks the lines each 76 characters.
+   */
+  private static final double BASE64_RATIO = 4.0 / 3.0 * 78.0 / 76.0;
+
+  private final long maxSize;
+  private final Cache<EmailAttachment, EncodedAttachment> cache;
+
+  /**
+   * @param maxSize the maximum amount of bytes retained by the encoded attachments, 0 disables the cache.
+   */
+  public AttachmentCache(long maxSize) {
+    this.maxSize = maxSize;
+    this.cache = maxSize > 0
+      ? CacheBuilder.newBuilder()
+          .weakKeys()
+          .maximumWeight(maxSize)
+          .weigher((EmailAttachment attachment, EncodedAttachment encoded) -> encoded.getRetainedSize())
+          .build()
+      : null;
+  }
+
+  /**
+   * Returns the encoded form of the {@code attachment}, encoding it the first time it's requested.
+   *
+   * @return the encoded attachment or empty if the attachment can't be cached, because it's content can only be read once or
+   *         it's larger than the cache itself, in which case it must be encoded while it's being written.
+   */
+  public Optional<EncodedAttachment> get(EmailAttachment attachment) {
+    if (cache == null || !isCacheable(attachment)) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(cache.get(attachment, () -> new EncodedAttachment(attachment)));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof EmailException) {
+        throw (EmailException) e.getCause();
+      }
+      throw new EmailException("Error while encoding attachment: " + attachment.getId(), e.getCause());
+    }
+  }
+
+  /**
+   * Only attachments held in memory are cached, the encoded size of any other content is not known up front and might not
+   * be readable more than once.
+   */
+  private boolean isCacheable(EmailAttachment attachment) {
+    Object content = attachment.getContent();
+    long size;
+    if (content instanceof byte[]) {
+      size = ((byte[]) content).length;
+    } else if (content instanceof String) {
+      // worst case, every char takes 3 bytes.
+      size = ((String) content).length() * 3L;
+    } else {
+      return false;
+    }
+    return size * BASE64_RATIO <= maxSize;
+  }
+}
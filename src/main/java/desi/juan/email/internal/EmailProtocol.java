@@ -245,6 +245,27 @@ public enum EmailProtocol {
         return unmaskProperty("mail.%s.writetimeout");
     }
 
+    /**
+     * If set to true, and a message has some valid and some invalid addresses, send the message anyway, reporting the partial
+     * failure with a SendFailedException. If set to false (the default), the message is not sent to any of the recipients if
+     * there is an invalid recipient address.
+     *
+     * @return the protocol send partial property.
+     */
+    public String getSendPartialProperty() {
+        return unmaskProperty("mail.%s.sendpartial");
+    }
+
+    /**
+     * The size in bytes of the chunks used to send messages with BDAT when the server supports CHUNKING, 0 or absent means
+     * the messages are sent with DATA.
+     *
+     * @return the protocol chunk size property.
+     */
+    public String getChunkSizeProperty() {
+        return unmaskProperty("mail.%s.chunksize");
+    }
+
     private String unmaskProperty(String property) {
         return format(property, name);
     }
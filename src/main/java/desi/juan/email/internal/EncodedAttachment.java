@@ -0,0 +1,114 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal;
+
+import static javax.mail.Part.ATTACHMENT;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeUtility;
+import javax.mail.internet.PreencodedMimeBodyPart;
+import javax.mail.util.ByteArrayDataSource;
+
+import desi.juan.email.api.EmailAttachment;
+import desi.juan.email.internal.exception.EmailException;
+
+/**
+ * The content of an {@link EmailAttachment} already base64 encoded, so it can be written to many messages without encoding
+ * it again for each one of them.
+ * <p>
+ * Only the encoded content and the name and content type of the attachment are kept, not the attachment itself, so the
+ * original content can be discarded once it's encoded.
+ */
+public final class EncodedAttachment {
+
+  private static final String BASE64 = "base64";
+  private static final String TRANSFER_ENCODING = "Content-Transfer-Encoding";
+
+  /**
+   * The name of the attachment that was encoded.
+   */
+  private final String fileName;
+
+  /**
+   * The content type of the attachment that was encoded.
+   */
+  private final String contentType;
+
+  /**
+   * The base64 representation of the attachment content, already split in lines.
+   */
+  private final byte[] encoded;
+
+  public EncodedAttachment(EmailAttachment attachment) {
+    this.fileName = attachment.getId();
+    this.contentType = attachment.getContentType();
+    this.encoded = encode(attachment);
+  }
+
+  /**
+   * @return the approximate amount of memory in bytes retained by this instance, most of it the encoded content.
+   */
+  public int getRetainedSize() {
+    return encoded.length + 2 * (length(fileName) + length(contentType));
+  }
+
+  /**
+   * Creates a new body part that writes the already encoded content as is. Body parts can only belong to a single
+   * multipart so a new one is created each time, all of them share the same encoded content.
+   */
+  public MimeBodyPart toBodyPart() throws MessagingException {
+    MimeBodyPart part = new PreencodedMimeBodyPart(BASE64);
+    part.setDisposition(ATTACHMENT);
+    part.setFileName(fileName);
+    part.setDataHandler(new DataHandler(new ByteArrayDataSource(encoded, contentType)));
+    // set after the data handler, otherwise JavaMail would scan the content to pick an encoding for it.
+    part.setHeader(TRANSFER_ENCODING, BASE64);
+    return part;
+  }
+
+  private static int length(String value) {
+    return value == null ? 0 : value.length();
+  }
+
+  private static byte[] encode(EmailAttachment attachment) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (OutputStream encoder = MimeUtility.encode(out, BASE64)) {
+      Object content = attachment.getContent();
+      DataHandler handler = content instanceof DataSource
+        ? new DataHandler((DataSource) content)
+        : new DataHandler(content, attachment.getContentType());
+      handler.writeTo(encoder);
+    } catch (IOException | MessagingException e) {
+      throw new EmailException("Error while encoding attachment: " + attachment.getId(), e);
+    }
+    return out.toByteArray();
+  }
+}
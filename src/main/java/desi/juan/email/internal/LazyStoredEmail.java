@@ -0,0 +1,135 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal;
+
+import static desi.juan.email.api.EmailConstants.TEXT;
+import static java.lang.String.format;
+
+import com.google.common.base.Charsets;
+
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.mail.Folder;
+import javax.mail.FolderClosedException;
+import javax.mail.Message;
+import javax.mail.MessageRemovedException;
+
+import desi.juan.email.api.EmailAttachment;
+import desi.juan.email.api.EmailBody;
+import desi.juan.email.internal.exception.EmailException;
+import desi.juan.email.internal.exception.RetrieveEmailException;
+
+/**
+ * A {@link StoredEmail} that keeps a handle to the message in the server and reads it's content, the body and the attachments,
+ * only the first time any of them is requested.
+ * <p>
+ * Reading the content flags the email as SEEN. The content can only be read while the folder the email was retrieved from is
+ * still open, once read it's kept so it's never read again.
+ */
+public final class LazyStoredEmail extends StoredEmail {
+
+  /**
+   * The message in the server, released once the content is read.
+   */
+  private Message message;
+
+  /**
+   * Guards the read of the content, so it's read only once.
+   */
+  private final Lock lock = new ReentrantLock();
+
+  private volatile EmailBody body;
+  private volatile List<EmailAttachment> attachments;
+
+  public LazyStoredEmail(Message message, long id) {
+    super(message, id, false);
+    this.message = message;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The content of the email is read the first time this method is called.
+   */
+  @Override
+  public EmailBody getBody() {
+    if (body == null) {
+      readContent();
+    }
+    return body;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The content of the email is read the first time this method is called.
+   */
+  @Override
+  public List<EmailAttachment> getAttachments() {
+    if (attachments == null) {
+      readContent();
+    }
+    return attachments;
+  }
+
+  private void readContent() {
+    lock.lock();
+    try {
+      if (body == null) {
+        doReadContent();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void doReadContent() {
+    Folder folder = message.getFolder();
+    if (folder != null && !folder.isOpen()) {
+      throw closedFolderError(folder, null);
+    }
+    try {
+      EmailContentProcessor processor = EmailContentProcessor.getInstance(message);
+      attachments = processor.getAttachments();
+      body = new EmailBody(processor.getBody(), Charsets.UTF_8, TEXT);
+      message = null;
+    } catch (EmailException e) {
+      if (e.getCause() instanceof FolderClosedException) {
+        throw closedFolderError(folder, e.getCause());
+      }
+      if (e.getCause() instanceof MessageRemovedException) {
+        throw new RetrieveEmailException(format("Cannot read the content of email id:[%s], it was removed from the folder",
+                                                getId()), e.getCause());
+      }
+      throw e;
+    }
+  }
+
+  private RetrieveEmailException closedFolderError(Folder folder, Throwable cause) {
+    return new RetrieveEmailException(format("Cannot read the content of email id:[%s], the folder [%s] it was retrieved from "
+                                             + "is closed", getId(), folder), cause);
+  }
+}
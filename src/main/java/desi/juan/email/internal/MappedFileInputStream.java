@@ -0,0 +1,128 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link InputStream} that reads a file by mapping it in memory one window at a time, so the content is read straight from
+ * the page cache without being copied into heap buffers first, and no matter the size of the file only a window is mapped
+ * at a time.
+ */
+final class MappedFileInputStream extends InputStream {
+
+  private static final long WINDOW_SIZE = 8 * 1024 * 1024;
+
+  private final FileChannel channel;
+  private final boolean closeChannel;
+  private final long size;
+  private long position;
+  private MappedByteBuffer window;
+
+  /**
+   * @param channel      the channel to read, it's read from the beginning no matter it's current position.
+   * @param closeChannel if the channel must be closed when the stream is closed.
+   */
+  MappedFileInputStream(FileChannel channel, boolean closeChannel) throws IOException {
+    this.channel = channel;
+    this.closeChannel = closeChannel;
+    this.size = channel.size();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextWindow()) {
+      return -1;
+    }
+    return window.get() & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!nextWindow()) {
+      return -1;
+    }
+    int read = Math.min(len, window.remaining());
+    window.get(b, off, read);
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0) {
+      return 0;
+    }
+    long remaining = window != null ? window.remaining() : 0;
+    if (n <= remaining) {
+      // through Buffer, ByteBuffer overrides position(int) since Java 9 and calling the override would break Java 8 runtimes.
+      ((Buffer) window).position(window.position() + (int) n);
+      return n;
+    }
+    long skipped = Math.min(n, remaining + size - position);
+    position += skipped - remaining;
+    window = null;
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    long available = (window != null ? window.remaining() : 0) + size - position;
+    return (int) Math.min(available, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    if (closeChannel) {
+      channel.close();
+    }
+  }
+
+  /**
+   * Maps the next window of the file if the current one was fully read.
+   *
+   * @return false if the end of the file was reached.
+   */
+  private boolean nextWindow() throws IOException {
+    if (window != null && window.hasRemaining()) {
+      return true;
+    }
+    if (position >= size) {
+      return false;
+    }
+    long length = Math.min(WINDOW_SIZE, size - position);
+    window = channel.map(READ_ONLY, position, length);
+    position += length;
+    return true;
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal;
+
+import static com.google.common.collect.ImmutableList.copyOf;
+
+import java.util.List;
+
+import com.google.common.collect.Multimap;
+import desi.juan.email.api.EmailAttachment;
+import desi.juan.email.api.EmailBody;
+import desi.juan.email.api.EmailTemplate;
+
+/**
+ * An {@link OutgoingEmail} rendered from an {@link EmailTemplate}.
+ * <p>
+ * Carries the parts that are shared by all the emails rendered from the same template, the attachments already encoded and
+ * the multipart boundary, so they are not computed again for each recipient.
+ */
+public final class RenderedEmail extends OutgoingEmail {
+
+  /**
+   * the attachments of the template, already encoded.
+   */
+  private final List<EncodedAttachment> encodedAttachments;
+
+  /**
+   * the boundary used to separate the body from the attachments.
+   */
+  private final String boundary;
+
+  public RenderedEmail(String subject,
+                       List<String> fromAddresses,
+                       List<String> toAddresses,
+                       List<String> bccAddresses,
+                       List<String> ccAddresses,
+                       List<String> replyToAddresses,
+                       EmailBody body,
+                       List<EmailAttachment> attachments,
+                       List<EncodedAttachment> encodedAttachments,
+                       Multimap<String, String> headers,
+                       String boundary) {
+    super(subject, fromAddresses, toAddresses, bccAddresses, ccAddresses, replyToAddresses, body, attachments, headers);
+    this.encodedAttachments = copyOf(encodedAttachments);
+    this.boundary = boundary;
+  }
+
+  /**
+   * @return the attachments of the email, already encoded.
+   */
+  public List<EncodedAttachment> getEncodedAttachments() {
+    return encodedAttachments;
+  }
+
+  /**
+   * @return the boundary shared by all the emails rendered from the same template.
+   */
+  public String getBoundary() {
+    return boundary;
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+import com.sun.mail.util.MailConnectException;
+
+/**
+ * Classifies the errors of a send by the replies of the SMTP server found in them.
+ * <p>
+ * The cause of a {@code MessagingException} is the next exception in it's chain, so walking the causes of a send failure also
+ * visits the reply of each rejected recipient.
+ */
+public final class SmtpReplies {
+
+  /**
+   * The reply of a server that is closing the session, whatever command it replies to.
+   */
+  private static final int SERVICE_NOT_AVAILABLE = 421;
+
+  /**
+   * Hide constructor.
+   */
+  private SmtpReplies() {}
+
+  /**
+   * @return true if the server rejected the send with a permanent (5xx) reply, retrying would only get the same reply.
+   */
+  public static boolean isPermanent(Throwable error) {
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (isPermanentCode(returnCode(cause))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the server rejected the send with a transient (4xx) reply, the message was not accepted and can be sent
+   *         again later or through another server.
+   */
+  public static boolean isTransient(Throwable error) {
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (isTransientCode(returnCode(cause))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the server is asking the client to slow down, either with a transient (4xx) reply to the whole
+   *         transaction, a 421 reply closing the session or because the connection was dropped, refused or timed out.
+   *         A transient reply to a single recipient, like a greylisting or a full mailbox, says nothing about the server.
+   */
+  public static boolean isCongestion(Throwable error) {
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      int code = returnCode(cause);
+      if (code == SERVICE_NOT_AVAILABLE) {
+        return true;
+      }
+      if (isTransientCode(code) && !(cause instanceof SMTPAddressFailedException)) {
+        return true;
+      }
+      if (cause instanceof SocketException || cause instanceof SocketTimeoutException
+          || cause instanceof MailConnectException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the SMTP reply code of an error, -1 if the error does not carry one.
+   */
+  public static int returnCode(Throwable error) {
+    if (error instanceof SMTPSendFailedException) {
+      return ((SMTPSendFailedException) error).getReturnCode();
+    }
+    if (error instanceof SMTPAddressFailedException) {
+      return ((SMTPAddressFailedException) error).getReturnCode();
+    }
+    if (error instanceof SMTPSenderFailedException) {
+      return ((SMTPSenderFailedException) error).getReturnCode();
+    }
+    return -1;
+  }
+
+  public static boolean isTransientCode(int code) {
+    return code >= 400 && code < 500;
+  }
+
+  public static boolean isPermanentCode(int code) {
+    return code >= 500 && code < 600;
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import javax.activation.DataSource;
+
+import desi.juan.email.api.InputStreamSupplier;
+
+/**
+ * A read only {@link DataSource} for attachment content that is not held in memory, the content is read in chunks while the
+ * message is being written to the server.
+ */
+public final class StreamedDataSource implements DataSource {
+
+  /**
+   * Files smaller than this are read through a regular stream, mapping a file has a fixed cost that only pays off for bigger
+   * ones.
+   */
+  private static final long MAPPING_THRESHOLD = 256 * 1024;
+
+  private final String name;
+  private final String contentType;
+  private final InputStreamSupplier content;
+
+  private StreamedDataSource(String name, String contentType, InputStreamSupplier content) {
+    this.name = name;
+    this.contentType = contentType;
+    this.content = content;
+  }
+
+  /**
+   * Creates a data source that reads the file in the specified {@code path}, the file is opened each time the content is read.
+   */
+  public static StreamedDataSource fromPath(String name, Path path, String contentType) {
+    return new StreamedDataSource(name, contentType, () -> {
+      FileChannel channel = FileChannel.open(path, READ);
+      try {
+        return open(channel, true);
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+    });
+  }
+
+  /**
+   * Creates a data source that reads the whole file of the specified {@code channel}, the channel belongs to the caller and
+   * it's never closed.
+   */
+  public static StreamedDataSource fromChannel(String name, FileChannel channel, String contentType) {
+    return new StreamedDataSource(name, contentType, () -> open(channel, false));
+  }
+
+  /**
+   * Creates a data source that reads the streams opened by the {@code supplier}.
+   */
+  public static StreamedDataSource fromSupplier(String name, InputStreamSupplier supplier, String contentType) {
+    return new StreamedDataSource(name, contentType, supplier);
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return content.open();
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    throw new IOException("Attachment content is read only");
+  }
+
+  @Override
+  public String getContentType() {
+    return contentType;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  private static InputStream open(FileChannel channel, boolean closeChannel) throws IOException {
+    if (channel.size() < MAPPING_THRESHOLD) {
+      return new ChannelInputStream(channel, closeChannel);
+    }
+    return new MappedFileInputStream(channel, closeChannel);
+  }
+
+  /**
+   * Reads a channel from the beginning using positional reads, so the position of the channel is not modified.
+   */
+  private static final class ChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final boolean closeChannel;
+    private long position;
+
+    ChannelInputStream(FileChannel channel, boolean closeChannel) {
+      this.channel = channel;
+      this.closeChannel = closeChannel;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+      if (read > 0) {
+        position += read;
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closeChannel) {
+        channel.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.commands;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import desi.juan.email.api.Email;
+import desi.juan.email.api.client.configuration.SmtpConfiguration;
+import desi.juan.email.internal.connection.RelayBalancer;
+import desi.juan.email.internal.exception.SendEmailException;
+import desi.juan.email.internal.exception.SendTimeoutException;
+
+/**
+ * Represents the asynchronous send operation.
+ * <p>
+ * The amount of pending emails is bounded, once the limit is reached new sends are rejected so the callers get backpressure
+ * instead of an unbounded backlog. Emails are sent by a fixed number of daemon threads unless an executor is provided in the
+ * {@link SmtpConfiguration}, in which case that executor is used, i.e. one that runs each send on a virtual thread.
+ */
+public final class AsyncSendCommand {
+
+  private final SendCommand sendCommand;
+  private final ExecutorService executor;
+  private final boolean ownedExecutor;
+  private final ScheduledThreadPoolExecutor timer;
+  private final Semaphore pending;
+  private final int maxPending;
+
+  public AsyncSendCommand(SendCommand sendCommand, SmtpConfiguration config) {
+    this.sendCommand = sendCommand;
+    this.maxPending = config.getAsyncQueueCapacity();
+    this.pending = new Semaphore(maxPending);
+    if (config.getExecutor().isPresent()) {
+      this.executor = config.getExecutor().get();
+      this.ownedExecutor = false;
+    } else {
+      ThreadPoolExecutor threads = new ThreadPoolExecutor(config.getAsyncThreads(),
+                                                          config.getAsyncThreads(),
+                                                          60000, MILLISECONDS,
+                                                          new LinkedBlockingQueue<>(),
+                                                          daemonThreads("email4j-smtp-sender"));
+      threads.allowCoreThreadTimeOut(true);
+      this.executor = threads;
+      this.ownedExecutor = true;
+    }
+    this.timer = new ScheduledThreadPoolExecutor(1, daemonThreads("email4j-smtp-timer"));
+    this.timer.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Sends an email message in background.
+   * <p>
+   * Cancelling the returned future before the email is picked by a sender thread discards the send. If the send does not
+   * complete within {@code timeout} milliseconds the future fails with a {@link SendTimeoutException}: an email that was not
+   * picked yet is discarded, but a send that is already talking to the server goes on, bounded by the connection read and
+   * write timeouts, and may still deliver the email. Retrying a send that {@link SendTimeoutException#mayBeDelivered() may be
+   * delivered} is not idempotent, the email could be delivered twice.
+   *
+   * @param timeout the time in milliseconds that the send has to complete, 0 means no timeout.
+   */
+  public CompletableFuture<Void> sendAsync(RelayBalancer relays, Email email, long timeout) {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    if (!pending.tryAcquire()) {
+      result.completeExceptionally(
+        new SendEmailException(format("Cannot queue the email, there are already %s emails waiting to be sent", maxPending)));
+      return result;
+    }
+
+    AtomicBoolean claimed = new AtomicBoolean();
+    Future<?> task;
+    try {
+      task = executor.submit(() -> {
+        if (!claimed.compareAndSet(false, true)) {
+          return;
+        }
+        try {
+          sendCommand.send(relays, email);
+          result.complete(null);
+        } catch (Throwable t) {
+          result.completeExceptionally(t);
+        } finally {
+          pending.release();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      pending.release();
+      result.completeExceptionally(new SendEmailException("Cannot queue the email, the sender is not accepting emails", e));
+      return result;
+    }
+
+    if (timeout > 0) {
+      ScheduledFuture<?> expiration = timer.schedule(() -> {
+        if (claimed.compareAndSet(false, true)) {
+          pending.release();
+          task.cancel(false);
+          result.completeExceptionally(
+            new SendTimeoutException(format("The email was not sent after %sms, it was discarded", timeout), false));
+        } else {
+          result.completeExceptionally(
+            new SendTimeoutException(format("The email was not sent after %sms, it may still be delivered", timeout), true));
+        }
+      }, timeout, MILLISECONDS);
+      result.whenComplete((v, e) -> expiration.cancel(false));
+    }
+
+    result.whenComplete((v, e) -> {
+      // cancelled or timed out before a thread picked the send, it is discarded.
+      if (claimed.compareAndSet(false, true)) {
+        pending.release();
+        task.cancel(false);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Stops accepting new emails, the ones that were already queued are still processed so their futures always complete.
+   * <p>
+   * Executors provided through the {@link SmtpConfiguration} are not shut down, they belong to the caller.
+   */
+  public void shutdown() {
+    if (ownedExecutor) {
+      executor.shutdown();
+    }
+    timer.shutdownNow();
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
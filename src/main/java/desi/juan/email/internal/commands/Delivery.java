@@ -0,0 +1,155 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.commands;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.InternetAddress;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import desi.juan.email.internal.SmtpReplies;
+import desi.juan.email.internal.exception.SendEmailException;
+
+/**
+ * Collects the outcome of the transactions used to send an email, by recipient.
+ * <p>
+ * When the server rejects some of the recipients of a transaction the message is still sent to the rest of them, the
+ * rejected ones are classified by the reply the server gave to each one of them. Recipients of a transaction that failed as
+ * a whole share the fate of the transaction. Transactions may be sent in parallel so all the methods are synchronized.
+ */
+final class Delivery {
+
+  private final List<String> accepted = new ArrayList<>();
+  private final List<String> permanentlyRejected = new ArrayList<>();
+  private final List<String> temporarilyRejected = new ArrayList<>();
+  private final List<Exception> errors = new ArrayList<>();
+
+  /**
+   * Records a transaction that was accepted for all the {@code recipients}.
+   */
+  synchronized void accepted(Address[] recipients) {
+    for (Address recipient : recipients) {
+      accepted.add(address(recipient));
+    }
+  }
+
+  /**
+   * Records a transaction for the {@code recipients} that failed, completely or for some of them.
+   */
+  synchronized void failed(Address[] recipients, Exception error) {
+    errors.add(error);
+    if (error instanceof SendFailedException && hasAddresses((SendFailedException) error)) {
+      SendFailedException failed = (SendFailedException) error;
+      add(accepted, failed.getValidSentAddresses());
+      if (failed.getInvalidAddresses() != null) {
+        for (Address invalid : failed.getInvalidAddresses()) {
+          // an address rejected without a reply, i.e. a malformed one, is never going to be accepted.
+          int code = replyCode(failed, invalid);
+          (SmtpReplies.isTransientCode(code) ? temporarilyRejected : permanentlyRejected).add(address(invalid));
+        }
+      }
+      // the valid recipients that did not get the message share the fate of the message itself.
+      boolean permanent = SmtpReplies.isPermanentCode(SmtpReplies.returnCode(failed));
+      add(permanent ? permanentlyRejected : temporarilyRejected, failed.getValidUnsentAddresses());
+    } else {
+      add(SmtpReplies.isPermanent(error) ? permanentlyRejected : temporarilyRejected, recipients);
+    }
+  }
+
+  /**
+   * @return true if all the transactions were accepted for all their recipients.
+   */
+  synchronized boolean isSuccess() {
+    return errors.isEmpty();
+  }
+
+  /**
+   * @return the recipients that got the email.
+   */
+  synchronized List<String> getAccepted() {
+    return new ArrayList<>(accepted);
+  }
+
+  /**
+   * Creates the error of an email that was not sent to all it's recipients.
+   * <p>
+   * If none of the recipients got the email the error is caused by the error of the first transaction, so it can be
+   * classified by the server reply. Otherwise the email was partially sent and it has no cause, sending it again as a whole
+   * would deliver it twice, the failures of the transactions are added as suppressed errors.
+   */
+  synchronized SendEmailException toException() {
+    Exception first = errors.get(0);
+    SendEmailException exception;
+    if (accepted.isEmpty()) {
+      exception = new SendEmailException("Error while sending the email: " + first.getMessage(), first,
+                                         accepted, permanentlyRejected, temporarilyRejected);
+    } else {
+      int rejected = permanentlyRejected.size() + temporarilyRejected.size();
+      exception = new SendEmailException(format("The email could not be sent to %s of it's %s recipients, %s were rejected "
+                                                  + "permanently and %s temporarily",
+                                                rejected, rejected + accepted.size(),
+                                                permanentlyRejected, temporarilyRejected),
+                                         null, accepted, permanentlyRejected, temporarilyRejected);
+    }
+    errors.stream().filter(error -> error != exception.getCause()).forEach(exception::addSuppressed);
+    return exception;
+  }
+
+  private static boolean hasAddresses(SendFailedException error) {
+    return error.getValidSentAddresses() != null || error.getValidUnsentAddresses() != null
+      || error.getInvalidAddresses() != null;
+  }
+
+  /**
+   * Finds the reply the server gave to the RCPT command of a rejected recipient, each rejected recipient is part of the chain
+   * of the send error.
+   */
+  private static int replyCode(MessagingException error, Address recipient) {
+    for (Exception next = error.getNextException(); next != null;
+         next = next instanceof MessagingException ? ((MessagingException) next).getNextException() : null) {
+      if (next instanceof SMTPAddressFailedException && recipient.equals(((SMTPAddressFailedException) next).getAddress())) {
+        return ((SMTPAddressFailedException) next).getReturnCode();
+      }
+    }
+    return -1;
+  }
+
+  private static void add(List<String> target, Address[] addresses) {
+    if (addresses != null) {
+      for (Address address : addresses) {
+        target.add(address(address));
+      }
+    }
+  }
+
+  private static String address(Address address) {
+    return address instanceof InternetAddress ? ((InternetAddress) address).getAddress() : address.toString();
+  }
+}
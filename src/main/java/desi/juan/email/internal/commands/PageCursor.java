@@ -0,0 +1,121 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.commands;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.util.Base64;
+
+import desi.juan.email.api.PageOrder;
+
+/**
+ * The position from which a page of emails is retrieved: the unique id of the email the page continues after, in the
+ * {@link PageOrder} of the page.
+ * <p>
+ * A cursor is handed to the users as an opaque continuation token, the token also carries the UIDVALIDITY of the folder so
+ * it's not used to continue walking a folder whose unique ids were reassigned.
+ */
+public final class PageCursor {
+
+  /**
+   * The UIDVALIDITY of a cursor that was not created from a previous page, it's valid for any folder.
+   */
+  static final long ANY_UID_VALIDITY = -1;
+
+  private static final String PREFIX = "v1";
+  private static final String SEPARATOR = ":";
+
+  private final PageOrder order;
+  private final long uidValidity;
+  private final long uid;
+
+  PageCursor(PageOrder order, long uidValidity, long uid) {
+    this.order = order;
+    this.uidValidity = uidValidity;
+    this.uid = uid;
+  }
+
+  /**
+   * Creates a cursor that starts from the oldest or the newest email of the folder, depending on the {@code order}.
+   */
+  public static PageCursor first(PageOrder order) {
+    return new PageCursor(order, ANY_UID_VALIDITY, 0);
+  }
+
+  /**
+   * Creates a cursor that continues after the email with the {@code uid}, the emails with greater uids are retrieved when
+   * walking the oldest first and the ones with lower uids when walking the newest first.
+   */
+  public static PageCursor after(PageOrder order, long uid) {
+    if (uid <= 0) {
+      throw new IllegalArgumentException("The uid to continue after must be greater than 0, but was: " + uid);
+    }
+    return new PageCursor(order, ANY_UID_VALIDITY, uid);
+  }
+
+  /**
+   * Decodes a cursor from the continuation token of a previous page.
+   */
+  public static PageCursor decode(String token) {
+    try {
+      String[] parts = new String(Base64.getUrlDecoder().decode(token), US_ASCII).split(SEPARATOR);
+      if (parts.length == 4 && parts[0].equals(PREFIX)) {
+        return new PageCursor(PageOrder.valueOf(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+      }
+    } catch (IllegalArgumentException e) {
+      // falls through, NumberFormatException is an IllegalArgumentException too.
+    }
+    throw new IllegalArgumentException(format("[%s] is not a valid continuation token", token));
+  }
+
+  /**
+   * @return the continuation token that represents this cursor.
+   */
+  public String encode() {
+    String value = String.join(SEPARATOR, PREFIX, order.name(), Long.toString(uidValidity), Long.toString(uid));
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(US_ASCII));
+  }
+
+  /**
+   * @return the order in which the folder is walked.
+   */
+  public PageOrder getOrder() {
+    return order;
+  }
+
+  /**
+   * @return the UIDVALIDITY of the folder the cursor was created for.
+   */
+  public long getUidValidity() {
+    return uidValidity;
+  }
+
+  /**
+   * @return the uid of the email the page continues after, 0 if the page starts from the beginning of the folder.
+   */
+  public long getUid() {
+    return uid;
+  }
+}
@@ -0,0 +1,188 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.commands;
+
+import static desi.juan.email.api.PageOrder.OLDEST_FIRST;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.mail.Folder.READ_ONLY;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterators.spliteratorUnknownSize;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import desi.juan.email.api.Email;
+import desi.juan.email.api.EmailPage;
+import desi.juan.email.internal.connection.MailboxManagerConnection;
+import desi.juan.email.internal.exception.RetrieveEmailException;
+
+/**
+ * An {@link Iterator} over the emails in a folder, from the oldest to the newest, that fetches them from the server in
+ * windows of a fixed amount of emails.
+ * <p>
+ * Only the window that is being iterated is kept in memory. As soon as the iteration moves to a window the next one is
+ * fetched in the background, unless the server reported that the current one is the last, so the emails can be processed
+ * and discarded while the following ones are being downloaded. Each fetch holds the folder lock of the connection, so it
+ * never runs at the same time as another operation over the folder.
+ * <p>
+ * The iterator must be closed once it's no longer used, to stop the background fetch. The fetcher thread of an iterator that
+ * is abandoned stops once it's idle, but the window being fetched is downloaded anyway.
+ */
+public final class RetrieveIterator implements Iterator<Email>, AutoCloseable {
+
+  private static final AtomicInteger COUNT = new AtomicInteger();
+  private static final long IDLE_SECONDS = 5;
+
+  private final MailboxManagerConnection connection;
+  private final String folder;
+  private final RetrieveOperations retriever;
+  private final boolean readContent;
+  private final int windowSize;
+  private final ThreadPoolExecutor fetcher;
+
+  /**
+   * The position of the next window, it continues after the uid of the last email fetched so the emails expunged meanwhile
+   * don't shift the window. Only read and written from the fetcher thread.
+   */
+  private PageCursor cursor = PageCursor.first(OLDEST_FIRST);
+
+  private Iterator<Email> window = Collections.emptyIterator();
+  private CompletableFuture<EmailPage> pending;
+  private boolean closed;
+
+  /**
+   * @param connection  the connection that opens the folder each time a window is fetched.
+   * @param folder      the name of the folder.
+   * @param readContent if the content of the emails is read when they are fetched.
+   * @param windowSize  the amount of emails fetched at once.
+   */
+  public RetrieveIterator(MailboxManagerConnection connection,
+                          String folder,
+                          RetrieveOperations retriever,
+                          boolean readContent,
+                          int windowSize)
+  {
+    if (windowSize < 1) {
+      throw new IllegalArgumentException("Cannot retrieve emails in windows of less than one email");
+    }
+    this.connection = connection;
+    this.folder = folder;
+    this.retriever = retriever;
+    this.readContent = readContent;
+    this.windowSize = windowSize;
+    this.fetcher = new ThreadPoolExecutor(1, 1, IDLE_SECONDS, SECONDS, new LinkedBlockingQueue<>(), r -> {
+      Thread thread = new Thread(r, "email4j-stream-" + COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.fetcher.allowCoreThreadTimeOut(true);
+    this.pending = fetchNextWindow();
+  }
+
+  /**
+   * Creates a sequential {@link Stream} over the emails of this iterator, closing the stream closes the iterator.
+   * <p>
+   * The stream must be closed once it's no longer used, like:
+   * <pre>
+   * try (Stream&lt;Email&gt; emails = iterator.stream()) {
+   *   emails.forEach(this::process);
+   * }
+   * </pre>
+   */
+  public Stream<Email> stream() {
+    return StreamSupport.stream(spliteratorUnknownSize(this, ORDERED | NONNULL), false).onClose(this::close);
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!window.hasNext()) {
+      if (closed || pending == null) {
+        return false;
+      }
+      EmailPage page = awaitPending();
+      window = page.getEmails().iterator();
+      if (page.hasMore()) {
+        pending = fetchNextWindow();
+      } else {
+        // this is the last window, asking the server for another one would only find out it's empty.
+        pending = null;
+        fetcher.shutdown();
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Email next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return window.next();
+  }
+
+  /**
+   * Stops fetching emails and discards the ones that were already fetched.
+   */
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      window = Collections.emptyIterator();
+      if (pending != null) {
+        pending.cancel(false);
+        pending = null;
+      }
+      fetcher.shutdown();
+    }
+  }
+
+  private EmailPage awaitPending() {
+    try {
+      return pending.join();
+    } catch (CompletionException e) {
+      close();
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RetrieveEmailException("Error while retrieving emails", e.getCause());
+    }
+  }
+
+  private CompletableFuture<EmailPage> fetchNextWindow() {
+    return CompletableFuture.supplyAsync(() -> {
+      EmailPage page = connection.withFolder(folder, READ_ONLY, f -> retriever.retrievePage(f, readContent, cursor, windowSize));
+      cursor = PageCursor.decode(page.getContinuationToken());
+      return page;
+    }, fetcher);
+  }
+}
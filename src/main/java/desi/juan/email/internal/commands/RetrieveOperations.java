@@ -23,20 +23,32 @@
  */
 package desi.juan.email.internal.commands;
 
+import static desi.juan.email.api.PageOrder.OLDEST_FIRST;
 import static java.lang.Long.parseLong;
 import static java.lang.String.format;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.sun.mail.imap.IMAPFolder;
 import com.sun.mail.pop3.POP3Folder;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.BiFunction;
 
+import javax.mail.FetchProfile;
 import javax.mail.Folder;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.UIDFolder;
 
 import desi.juan.email.api.Email;
+import desi.juan.email.api.EmailPage;
+import desi.juan.email.api.sync.SyncResult;
+import desi.juan.email.api.sync.SyncState;
+import desi.juan.email.api.sync.SyncStateStore;
+import desi.juan.email.internal.LazyStoredEmail;
 import desi.juan.email.internal.StoredEmail;
 import desi.juan.email.internal.exception.RetrieveEmailException;
 
@@ -54,22 +66,60 @@ public final class RetrieveOperations {
    * ({@code readContent} = false) the SEEN flag is not going to be set.
    */
   public List<Email> retrieve(Folder folder, boolean readContent, int numToRetrieve) {
-    ImmutableList.Builder<Email> emailsBuilder = ImmutableList.builder();
+    return retrieve(folder, readContent, 1, toMessageNumber(folder, numToRetrieve));
+  }
+
+  /**
+   * Retrieves limited number of the emails in the specified {@code folderName}, without reading their content.
+   * <p>
+   * The content of each email is read the first time it's body or attachments are requested, as long as the folder is still
+   * open, the SEEN flag is only set for the emails whose content is read.
+   */
+  public List<Email> retrieveLazily(Folder folder, int numToRetrieve) {
+    return retrieve(folder, false, 1, toMessageNumber(folder, numToRetrieve), LazyStoredEmail::new);
+  }
+
+  /**
+   * Retrieves the emails in the specified {@code folderName} whose message numbers go from {@code start} to {@code end}, both
+   * inclusive.
+   * <p>
+   * All the data that is read to wrap the emails is prefetched for the whole range in a single request, so the folder does not
+   * go back to the server once for each piece of data of each email.
+   */
+  public List<Email> retrieve(Folder folder, boolean readContent, int start, int end) {
+    return retrieve(folder, readContent, start, end, (message, uid) -> new StoredEmail(message, uid, readContent));
+  }
+
+  private List<Email> retrieve(Folder folder,
+                               boolean readContent,
+                               int start,
+                               int end,
+                               BiFunction<Message, Long, Email> wrapper) {
     try {
-      // if supposed to retrieve all messages, set numToRetrieve to number of messages in folder
-      if (numToRetrieve == ALL_MESSAGES) {
-        numToRetrieve = folder.getMessageCount();
-      }
-      for (Message message : folder.getMessages(1, numToRetrieve)) {
-        long uid = getEmailUid(folder, message);
-        emailsBuilder.add(new StoredEmail(message, uid, readContent));
-      }
-      return emailsBuilder.build();
+      return wrap(folder, folder.getMessages(start, end), readContent, wrapper);
     } catch (MessagingException me) {
       throw new RetrieveEmailException("Error while retrieving emails", me);
     }
   }
 
+  /**
+   * Prefetches the data of all the {@code messages} in a single request and wraps them into emails.
+   */
+  private List<Email> wrap(Folder folder,
+                           Message[] messages,
+                           boolean readContent,
+                           BiFunction<Message, Long, Email> wrapper) throws MessagingException {
+    ImmutableList.Builder<Email> emailsBuilder = ImmutableList.builder();
+    if (messages.length > 0) {
+      folder.fetch(messages, fetchProfile(readContent));
+    }
+    for (Message message : messages) {
+      long uid = getEmailUid(folder, message);
+      emailsBuilder.add(wrapper.apply(message, uid));
+    }
+    return emailsBuilder.build();
+  }
+
   /**
    * Retrieves all the emails in the specified {@code folderName}.
    * <p>
@@ -80,6 +130,79 @@ public final class RetrieveOperations {
     return retrieve(folder, readContent, ALL_MESSAGES);
   }
 
+  /**
+   * Retrieves a page of at most {@code limit} emails of the {@code folder}, starting from the position of the {@code cursor}.
+   * <p>
+   * The page bounds are translated from unique ids to message numbers, which are sorted by uid as well, so only the emails
+   * of the page are fetched no matter how deep in the folder the page is.
+   */
+  public EmailPage retrievePage(Folder folder, boolean readContent, PageCursor cursor, int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("The page limit must be greater than 0, but was: " + limit);
+    }
+    if (!(folder instanceof UIDFolder)) {
+      throw new RetrieveEmailException(format("The folder [%s] does not support retrieving emails by pages", folder));
+    }
+    UIDFolder uidFolder = (UIDFolder) folder;
+    try {
+      long uidValidity = uidFolder.getUIDValidity();
+      if (cursor.getUidValidity() != PageCursor.ANY_UID_VALIDITY && cursor.getUidValidity() != uidValidity) {
+        throw new RetrieveEmailException(format("The continuation token is no longer valid, the uids of the folder [%s] "
+                                                + "were reassigned", folder));
+      }
+      int count = folder.getMessageCount();
+      boolean continues = cursor.getUid() > 0;
+      List<Email> emails;
+      boolean more;
+      if (cursor.getOrder() == OLDEST_FIRST) {
+        int start = continues ? findNumber(uidFolder, count, cursor.getUid(), true) : 1;
+        int end = (int) Math.min((long) start + limit - 1, count);
+        emails = start <= end ? retrieve(folder, readContent, start, end) : ImmutableList.of();
+        more = end < count;
+      } else {
+        int end = continues ? findNumber(uidFolder, count, cursor.getUid(), false) - 1 : count;
+        int start = (int) Math.max(1L, (long) end - limit + 1);
+        emails = start <= end ? Lists.reverse(retrieve(folder, readContent, start, end)) : ImmutableList.of();
+        more = start > 1;
+      }
+      long last = emails.isEmpty() ? cursor.getUid() : emails.get(emails.size() - 1).getId();
+      return new EmailPage(emails, new PageCursor(cursor.getOrder(), uidValidity, last).encode(), more);
+    } catch (MessagingException me) {
+      throw new RetrieveEmailException("Error while retrieving emails", me);
+    }
+  }
+
+  /**
+   * Retrieves the emails of the {@code folder} that arrived since it was last synchronized, according to the state kept in
+   * the {@code store} under the URL of the folder, which identifies the account it belongs to as well.
+   * <p>
+   * Only the emails whose uid is greater than the last one seen are fetched, unless the folder was never synchronized or it's
+   * UIDVALIDITY changed, in which case all of them are. The new state is not saved until the returned result is
+   * {@link SyncResult#commit() committed}, so the emails are returned again until the caller processes them and commits.
+   */
+  public SyncResult sync(Folder folder, boolean readContent, SyncStateStore store) {
+    if (!(folder instanceof UIDFolder)) {
+      throw new RetrieveEmailException(format("The folder [%s] does not support synchronization", folder));
+    }
+    UIDFolder uidFolder = (UIDFolder) folder;
+    try {
+      String key = folder.getURLName().toString();
+      long uidValidity = uidFolder.getUIDValidity();
+      Optional<SyncState> previous = store.load(key).filter(state -> state.getUidValidity() == uidValidity);
+      long lastUid = previous.map(SyncState::getLastUid).orElse(0L);
+      refresh(folder);
+      Message[] messages = previous.isPresent()
+        ? newerThan(uidFolder, uidFolder.getMessagesByUID(lastUid + 1, UIDFolder.LASTUID), lastUid)
+        : folder.getMessages();
+      List<Email> emails = wrap(folder, messages, readContent, (message, uid) -> new StoredEmail(message, uid, readContent));
+      long newLastUid = emails.stream().mapToLong(Email::getId).reduce(lastUid, Math::max);
+      SyncState state = new SyncState(uidValidity, newLastUid);
+      return new SyncResult(emails, !previous.isPresent(), state, store, key);
+    } catch (MessagingException me) {
+      throw new RetrieveEmailException("Error while synchronizing emails", me);
+    }
+  }
+
   public Email retrieveById(UIDFolder folder, long uid) {
     try {
       return new StoredEmail(folder.getMessageByUID(uid), uid, true);
@@ -88,6 +211,86 @@ public final class RetrieveOperations {
     }
   }
 
+  /**
+   * Discards the messages whose uid is not greater than {@code uid}, a uid range that ends with the newest email always
+   * includes it, even if it was already synchronized.
+   */
+  private Message[] newerThan(UIDFolder folder, Message[] messages, long uid) throws MessagingException {
+    List<Message> newer = new ArrayList<>(messages.length);
+    for (Message message : messages) {
+      if (message != null && folder.getUID(message) > uid) {
+        newer.add(message);
+      }
+    }
+    return newer.toArray(new Message[0]);
+  }
+
+  /**
+   * Makes an open IMAP folder learn about the emails that arrived since it last talked to the server, the emails in a uid
+   * range that the folder was not told about yet are discarded otherwise.
+   */
+  private void refresh(Folder folder) throws MessagingException {
+    if (folder instanceof IMAPFolder) {
+      ((IMAPFolder) folder).doCommand(protocol -> {
+        protocol.noop();
+        return null;
+      });
+    }
+  }
+
+  /**
+   * Translates the amount of emails to retrieve into the message number of the last one of them.
+   */
+  private int toMessageNumber(Folder folder, int numToRetrieve) {
+    try {
+      // if supposed to retrieve all messages, set numToRetrieve to number of messages in folder
+      return numToRetrieve == ALL_MESSAGES ? folder.getMessageCount() : numToRetrieve;
+    } catch (MessagingException me) {
+      throw new RetrieveEmailException("Error while retrieving emails", me);
+    }
+  }
+
+  /**
+   * Creates the {@link FetchProfile} with everything a {@link StoredEmail} reads from its message: the envelope, the flags, the
+   * uid and all the headers, plus the structure of the content when the content is going to be read.
+   */
+  private FetchProfile fetchProfile(boolean readContent) {
+    FetchProfile profile = new FetchProfile();
+    profile.add(FetchProfile.Item.ENVELOPE);
+    profile.add(FetchProfile.Item.FLAGS);
+    profile.add(UIDFolder.FetchProfileItem.UID);
+    profile.add(IMAPFolder.FetchProfileItem.HEADERS);
+    if (readContent) {
+      profile.add(FetchProfile.Item.CONTENT_INFO);
+    }
+    return profile;
+  }
+
+  /**
+   * Finds the message number of the first email whose uid is greater than ({@code after}) or equal to the {@code uid}, the
+   * number after the last one if there is no such email.
+   * <p>
+   * The email with the {@code uid} is usually still there and is looked up directly, otherwise the number is searched with a
+   * binary search over the uids of the folder.
+   */
+  private int findNumber(UIDFolder folder, int count, long uid, boolean after) throws MessagingException {
+    Message message = folder.getMessageByUID(uid);
+    if (message != null && !message.isExpunged()) {
+      return after ? message.getMessageNumber() + 1 : message.getMessageNumber();
+    }
+    int low = 1;
+    int high = count + 1;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (folder.getUID(((Folder) folder).getMessage(middle)) > uid) {
+        high = middle;
+      } else {
+        low = middle + 1;
+      }
+    }
+    return low;
+  }
+
   private long getEmailUid(Folder folder, Message message) throws MessagingException {
     if (folder instanceof POP3Folder) {
       return parseLong(((POP3Folder) folder).getUID(message));
@@ -0,0 +1,220 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.commands;
+
+import static desi.juan.email.api.PageOrder.OLDEST_FIRST;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.mail.Folder.READ_ONLY;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import desi.juan.email.api.Email;
+import desi.juan.email.api.EmailPage;
+import desi.juan.email.api.Flow;
+import desi.juan.email.internal.connection.MailboxManagerConnection;
+
+/**
+ * A {@link Flow.Publisher} of the emails in a folder, from the oldest to the newest.
+ * <p>
+ * Emails are fetched from the server in batches and only on demand: a batch is fetched once the subscriber requested more
+ * emails than the ones already fetched, so a slow subscriber never has more than a batch of emails waiting for it. Each
+ * subscriber walks the folder on it's own, the fetches and the signals of a subscription run on a daemon thread of it's
+ * own, which stops once it's idle so an abandoned subscription does not keep it.
+ * <p>
+ * The subscription completes as soon as the server reports that the last batch was fetched and it's emails were signaled,
+ * without waiting for more demand. Each fetch holds the folder lock of the connection, so it never runs at the same time
+ * as another operation over the folder.
+ */
+public final class RetrievePublisher implements Flow.Publisher<Email> {
+
+  private static final AtomicInteger COUNT = new AtomicInteger();
+  private static final long IDLE_SECONDS = 5;
+
+  private final MailboxManagerConnection connection;
+  private final String folder;
+  private final RetrieveOperations retriever;
+  private final boolean readContent;
+  private final int batchSize;
+
+  /**
+   * @param connection  the connection that opens the folder each time a batch is fetched.
+   * @param folder      the name of the folder.
+   * @param readContent if the content of the emails is read when they are fetched.
+   * @param batchSize   the amount of emails fetched at once.
+   */
+  public RetrievePublisher(MailboxManagerConnection connection,
+                           String folder,
+                           RetrieveOperations retriever,
+                           boolean readContent,
+                           int batchSize)
+  {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Cannot retrieve emails in batches of less than one email");
+    }
+    this.connection = connection;
+    this.folder = folder;
+    this.retriever = retriever;
+    this.readContent = readContent;
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super Email> subscriber) {
+    new BatchSubscription(subscriber).start();
+  }
+
+  private final class BatchSubscription implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super Email> subscriber;
+    private final Queue<Email> fetched = new ArrayDeque<>();
+    private final ThreadPoolExecutor signals;
+
+    /**
+     * Only read and written from the signals thread.
+     */
+    private long demand;
+    private PageCursor cursor = PageCursor.first(OLDEST_FIRST);
+    private boolean more = true;
+    private boolean done;
+
+    /**
+     * Set as soon as the subscriber cancels, so the emails that are being signaled stop right away.
+     */
+    private volatile boolean cancelled;
+
+    BatchSubscription(Flow.Subscriber<? super Email> subscriber) {
+      this.subscriber = subscriber;
+      this.signals = new ThreadPoolExecutor(1, 1, IDLE_SECONDS, SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, "email4j-retrieve-" + COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.signals.allowCoreThreadTimeOut(true);
+    }
+
+    void start() {
+      run(() -> subscriber.onSubscribe(this));
+    }
+
+    @Override
+    public void request(long n) {
+      run(() -> {
+        if (n <= 0) {
+          fail(new IllegalArgumentException("The amount of requested emails must be positive, got " + n));
+          return;
+        }
+        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+        drain();
+      });
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      run(this::terminate);
+    }
+
+    private void drain() {
+      while (!done && !cancelled && demand > 0) {
+        if (fetched.isEmpty() && !fetchBatch()) {
+          return;
+        }
+        Email email = fetched.poll();
+        if (email != null) {
+          demand--;
+          subscriber.onNext(email);
+        }
+      }
+      if (!done && !cancelled && !more && fetched.isEmpty()) {
+        complete();
+      }
+    }
+
+    /**
+     * @return false if there are no more emails to fetch, in which case the subscription is already completed.
+     */
+    private boolean fetchBatch() {
+      if (more) {
+        try {
+          // continues after the uid of the last email fetched, the emails expunged meanwhile don't shift the batch.
+          EmailPage page = connection.withFolder(folder, READ_ONLY,
+                                                 f -> retriever.retrievePage(f, readContent, cursor, batchSize));
+          cursor = PageCursor.decode(page.getContinuationToken());
+          more = page.hasMore();
+          fetched.addAll(page.getEmails());
+        } catch (RuntimeException e) {
+          fail(e);
+          return false;
+        }
+      }
+      if (fetched.isEmpty()) {
+        complete();
+        return false;
+      }
+      return true;
+    }
+
+    private void complete() {
+      terminate();
+      subscriber.onComplete();
+    }
+
+    private void fail(Throwable error) {
+      terminate();
+      subscriber.onError(error);
+    }
+
+    private void terminate() {
+      done = true;
+      fetched.clear();
+      signals.shutdown();
+    }
+
+    /**
+     * Runs the {@code signal} in the subscription thread, once the subscription is terminated the signals are ignored.
+     */
+    private void run(Runnable signal) {
+      try {
+        signals.execute(() -> {
+          if (done) {
+            return;
+          }
+          try {
+            signal.run();
+          } catch (RuntimeException e) {
+            // a subscriber that throws is considered cancelled.
+            terminate();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // already terminated
+      }
+    }
+  }
+}
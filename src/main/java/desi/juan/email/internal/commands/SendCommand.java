@@ -25,34 +25,63 @@ package desi.juan.email.internal.commands;
 
 
 import static desi.juan.email.api.EmailConstants.MULTIPART;
+import static desi.juan.email.internal.connection.SenderConnection.IGNORED_HEADERS;
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static javax.mail.Message.RecipientType.BCC;
 import static javax.mail.Message.RecipientType.CC;
 import static javax.mail.Message.RecipientType.TO;
 import static javax.mail.Part.ATTACHMENT;
 import static javax.mail.Part.INLINE;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import javax.activation.DataHandler;
+import javax.activation.DataSource;
 import javax.mail.Address;
-import javax.mail.Message;
 import javax.mail.MessagingException;
-import javax.mail.Transport;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
 import javax.mail.internet.AddressException;
+import javax.mail.internet.ContentType;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimePart;
+import javax.mail.util.SharedByteArrayInputStream;
 
-import com.google.common.collect.Multimap;
+import com.sun.mail.smtp.SMTPMessage;
 import desi.juan.email.api.Email;
 import desi.juan.email.api.EmailAttachment;
 import desi.juan.email.api.EmailBody;
+import desi.juan.email.api.SendResult;
+import desi.juan.email.internal.AttachmentCache;
+import desi.juan.email.internal.EncodedAttachment;
+import desi.juan.email.internal.RenderedEmail;
+import desi.juan.email.internal.connection.PooledTransport;
+import desi.juan.email.internal.connection.RelayBalancer;
 import desi.juan.email.internal.connection.SenderConnection;
+import desi.juan.email.internal.dkim.DkimSigner;
+import desi.juan.email.internal.exception.EmailConnectionException;
 import desi.juan.email.internal.exception.EmailException;
 import desi.juan.email.internal.exception.SendEmailException;
 
@@ -61,57 +90,465 @@ import desi.juan.email.internal.exception.SendEmailException;
  */
 public final class SendCommand {
 
+  private static final String TRANSFER_ENCODING = "Content-Transfer-Encoding";
+  private static final String BASE64 = "base64";
+  private static final String BINARY = "binary";
+  private static final String CRLF = "\r\n";
+  private static final Pattern LINE_BREAK = Pattern.compile("\r\n|\r|\n");
+  private static final String EIGHT_BIT = "8bit";
+  private static final String BINARY_MIME = "BODY=BINARYMIME";
+  private static final String EIGHT_BIT_MIME = "BODY=8BITMIME";
+  private static final String SMTP_UTF8 = "SMTPUTF8";
+  private static final int MAX_LINE_LENGTH = 998;
+
+  private static final String FROM = "From";
+  private static final String TO_HEADER = "To";
+  private static final String CC_HEADER = "Cc";
+  private static final String BCC_HEADER = "Bcc";
+  private static final String REPLY_TO = "Reply-To";
+  private static final String SUBJECT = "Subject";
+
+  private final AttachmentCache attachmentCache;
+  private final int maxRecipientsPerTransaction;
+  private final ExecutorService chunkExecutor;
+  private final DkimSigner dkimSigner;
+
+  public SendCommand(AttachmentCache attachmentCache, int maxRecipientsPerTransaction, DkimSigner dkimSigner) {
+    this.attachmentCache = attachmentCache;
+    this.maxRecipientsPerTransaction = maxRecipientsPerTransaction;
+    this.dkimSigner = dkimSigner;
+    AtomicInteger count = new AtomicInteger();
+    this.chunkExecutor = Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "email4j-smtp-chunk-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Sends an email message through one of the {@code relays}, failing over to the next relay if it could not be reached or
+   * it temporarily rejected the message.
+   */
+  public void send(RelayBalancer relays, Email email) {
+    relays.execute(connection -> {
+      send(connection, email);
+      return null;
+    });
+  }
+
+  /**
+   * Sends an email to an envelope of {@code recipients} through one of the {@code relays}, failing over to the next relay if
+   * it could not be reached or it temporarily rejected the message.
+   */
+  public void sendToEnvelope(RelayBalancer relays, Email email, Collection<String> recipients) {
+    relays.execute(connection -> {
+      sendToEnvelope(connection, email, recipients);
+      return null;
+    });
+  }
+
+  /**
+   * Sends a batch of emails through one of the {@code relays}, reusing a single SMTP session for all of them.
+   * <p>
+   * If the relay can't be reached the emails that were not sent yet fail over to the next relay, the ones already sent keep
+   * their results.
+   *
+   * @return a {@link SendResult} for each email, in the same order of the provided {@code emails}.
+   */
+  public List<SendResult> sendAll(RelayBalancer relays, Collection<Email> emails) {
+    List<Email> batch = new ArrayList<>(emails);
+    List<SendResult> results = new ArrayList<>(batch.size());
+    try {
+      relays.execute(connection -> {
+        sendAll(connection, batch.subList(results.size(), batch.size()), results);
+        return null;
+      });
+    } catch (EmailConnectionException e) {
+      failUnsent(batch, results, e);
+    }
+    return results;
+  }
+
   /**
    * Sends an email message. The message will be sent to all recipient {@code to}, {@code cc},
    * {@code bcc} specified in the message.
+   * <p>
+   * The message is sent through a pooled transport borrowed from the {@code connection}, so consecutive sends reuse the same
+   * SMTP session instead of connecting each time. If the email has more recipients than the ones accepted in a single
+   * transaction, the message is rendered once and sent in many transactions, in parallel over the pooled transports.
+   *
+   * @throws SendEmailException if the email was not sent to some of it's recipients, the ones that were rejected are
+   *                            available through the exception.
    */
   public void send(SenderConnection connection, Email email) {
+    MimeMessage message;
+    Address[] recipients;
+    try {
+      message = buildMessage(connection, email);
+      recipients = message.getAllRecipients();
+    } catch (MessagingException e) {
+      throw new SendEmailException("Error while sending the email: " + e.getMessage(), e);
+    }
+    deliver(connection, message, recipients);
+  }
+
+  /**
+   * Sends an email to an envelope of {@code recipients} that is independent of it's To, Cc and Bcc addresses, the addresses
+   * in the email headers don't get the email unless they are part of the envelope.
+   * <p>
+   * The message is rendered once and the same payload is sent in as many transactions as needed to deliver it to all the
+   * {@code recipients} without exceeding the max recipients per transaction, so every recipient gets the same content
+   * without seeing the rest of the recipients.
+   *
+   * @throws SendEmailException if the email was not sent to some of the recipients, the ones that were rejected are
+   *                            available through the exception.
+   */
+  public void sendToEnvelope(SenderConnection connection, Email email, Collection<String> recipients) {
+    MimeMessage message;
+    boolean utf8 = connection.supportsSmtpUtf8() && recipients.stream().anyMatch(SendCommand::isNonAscii);
     try {
+      message = buildMessage(connection, email);
+      if (utf8) {
+        // internationalized envelope addresses need SMTPUTF8 even if the headers don't.
+        SMTPMessage smtpMessage = (SMTPMessage) message;
+        String extension = smtpMessage.getMailExtension();
+        if (extension == null) {
+          smtpMessage.setMailExtension(SMTP_UTF8);
+        } else if (!extension.contains(SMTP_UTF8)) {
+          smtpMessage.setMailExtension(extension + " " + SMTP_UTF8);
+        }
+      }
+    } catch (MessagingException e) {
+      throw new SendEmailException("Error while sending the email: " + e.getMessage(), e);
+    }
+    deliver(connection, message, toAddresses(new ArrayList<>(recipients), utf8));
+  }
 
-      Message m = new MimeMessage(connection.getSession());
-      m.setFrom(toAddress(email.getFromAddresses().get(0)));
-      m.setRecipients(TO, toAddresses(email.getToAddresses()));
-      m.setRecipients(CC, toAddresses(email.getCcAddresses()));
-      m.setRecipients(BCC, toAddresses(email.getBccAddresses()));
-      m.setSentDate(Calendar.getInstance().getTime());
-      m.setSubject(email.getSubject());
-      m.setReplyTo(toAddresses(email.getReplyToAddresses()));
+  /**
+   * Sends a message to the provided recipients, splitting them in as many transactions as needed and sending the transactions
+   * in parallel over the pooled transports.
+   */
+  private void deliver(SenderConnection connection, MimeMessage message, Address[] recipients) {
+    List<Address[]> chunks = chunk(recipients);
+    Delivery delivery = new Delivery();
+    if (chunks.size() == 1) {
+      sendChunk(connection, message, chunks.get(0), delivery);
+    } else {
+      MimeMessage rendered = render(connection, message);
+      Queue<Address[]> pending = new ConcurrentLinkedQueue<>(chunks);
+      Runnable worker = () -> {
+        Address[] chunk;
+        while ((chunk = pending.poll()) != null) {
+          sendChunk(connection, rendered, chunk, delivery);
+        }
+      };
+      // the calling thread is one of the workers, there is no point in more workers than connections.
+      int workers = Math.min(chunks.size(), connection.getConnectionLimit());
+      List<CompletableFuture<Void>> running = new ArrayList<>(workers - 1);
+      for (int i = 1; i < workers; i++) {
+        running.add(CompletableFuture.runAsync(worker, chunkExecutor));
+      }
+      worker.run();
+      running.forEach(CompletableFuture::join);
+    }
 
+    if (!delivery.isSuccess()) {
+      throw delivery.toException();
+    }
+  }
+
+  /**
+   * Sends a batch of emails reusing a single SMTP session for all of them.
+   * <p>
+   * A failure only affects the email that failed, the server transaction is reset and the rest of the batch keeps going. If
+   * the connection is lost a new one is borrowed for the remaining emails. Emails with more recipients than the ones accepted
+   * in a single transaction are sent in many consecutive transactions.
+   *
+   * @return a {@link SendResult} for each email, in the same order of the provided {@code emails}, with the outcome of each
+   *         one of it's recipients.
+   */
+  public List<SendResult> sendAll(SenderConnection connection, Collection<Email> emails) {
+    List<Email> batch = new ArrayList<>(emails);
+    List<SendResult> results = new ArrayList<>(batch.size());
+    try {
+      sendAll(connection, batch, results);
+    } catch (EmailConnectionException e) {
+      failUnsent(batch, results, e);
+    }
+    return results;
+  }
+
+  /**
+   * Sends a batch of emails adding the result of each one of them to the {@code results}.
+   *
+   * @throws UnreachableRelayException if a connection with the server could not be opened before anything of the email that
+   *                                   was being sent was accepted, that email and the rest of the batch have no results.
+   */
+  private void sendAll(SenderConnection connection, List<Email> emails, List<SendResult> results) {
+    PooledTransport transport = null;
+    try {
+      for (Email email : emails) {
+        try {
+          MimeMessage message = buildMessage(connection, email);
+          List<Address[]> chunks = chunk(message.getAllRecipients());
+          MimeMessage payload = chunks.size() == 1 ? message : render(connection, message);
+          Delivery delivery = new Delivery();
+          for (Address[] chunk : chunks) {
+            try {
+              connection.acquireSendPermits(chunk.length);
+              if (transport == null) {
+                transport = borrowTransport(connection, delivery);
+              }
+              try {
+                transport.sendMessage(payload, chunk);
+              } catch (SendFailedException e) {
+                // the server rejected the message, or some of the recipients, but the session is still usable.
+                connection.recordFailure(e);
+                throw e;
+              } catch (MessagingException | RuntimeException e) {
+                connection.recordFailure(e);
+                connection.invalidateTransport(transport);
+                transport = null;
+                throw e;
+              }
+              connection.recordSuccess();
+              if (!connection.canReuseTransport(transport)) {
+                connection.releaseTransport(transport);
+                transport = null;
+              }
+              delivery.accepted(chunk);
+            } catch (UnreachableRelayException e) {
+              throw e;
+            } catch (MessagingException | RuntimeException e) {
+              delivery.failed(chunk, e);
+            }
+          }
+          results.add(delivery.isSuccess()
+            ? SendResult.success(email, delivery.getAccepted())
+            : SendResult.failure(email, delivery.toException()));
+        } catch (UnreachableRelayException e) {
+          throw e;
+        } catch (MessagingException | RuntimeException e) {
+          results.add(SendResult.failure(email, new SendEmailException("Error while sending the email: " + e.getMessage(), e)));
+        }
+      }
+    } finally {
+      if (transport != null) {
+        connection.releaseTransport(transport);
+      }
+    }
+  }
+
+  /**
+   * Borrows a transport to send the email whose outcome is recorded in the {@code delivery}, if the server can't be reached
+   * and no recipient got the email yet the email can be sent through another relay without delivering it twice.
+   */
+  private PooledTransport borrowTransport(SenderConnection connection, Delivery delivery) {
+    try {
+      return connection.borrowTransport();
+    } catch (EmailConnectionException e) {
+      if (delivery.getAccepted().isEmpty()) {
+        throw new UnreachableRelayException(e);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Adds a failed result for each one of the emails of the {@code batch} that has no result yet.
+   */
+  private void failUnsent(List<Email> batch, List<SendResult> results, EmailConnectionException error) {
+    Throwable cause = error instanceof UnreachableRelayException ? error.getCause() : error;
+    for (Email email : batch.subList(results.size(), batch.size())) {
+      results.add(SendResult.failure(email, new SendEmailException("Error while sending the email: " + cause.getMessage(),
+                                                                   cause)));
+    }
+  }
+
+  /**
+   * Stops the threads used to send the transactions of an email in parallel.
+   */
+  public void shutdown() {
+    chunkExecutor.shutdown();
+  }
+
+  /**
+   * Sends a message to some of it's recipients, in a single transaction over a pooled transport, recording the outcome in the
+   * {@code delivery}.
+   */
+  private void sendChunk(SenderConnection connection, MimeMessage message, Address[] recipients, Delivery delivery) {
+    try {
+      connection.acquireSendPermits(recipients.length);
+      PooledTransport transport = connection.borrowTransport();
+      try {
+        transport.sendMessage(message, recipients);
+      } catch (SendFailedException e) {
+        // the server rejected the message, or some of the recipients, but the session is still usable.
+        connection.recordFailure(e);
+        connection.releaseTransport(transport);
+        throw e;
+      } catch (MessagingException | RuntimeException e) {
+        connection.recordFailure(e);
+        connection.invalidateTransport(transport);
+        throw e;
+      }
+      connection.recordSuccess();
+      connection.releaseTransport(transport);
+      delivery.accepted(recipients);
+    } catch (MessagingException | RuntimeException e) {
+      delivery.failed(recipients, e);
+    }
+  }
+
+  /**
+   * Splits the recipients of a message in groups no larger than the max recipients per transaction.
+   */
+  private List<Address[]> chunk(Address[] recipients) {
+    if (recipients == null || maxRecipientsPerTransaction <= 0 || recipients.length <= maxRecipientsPerTransaction) {
+      return Collections.singletonList(recipients == null ? new Address[0] : recipients);
+    }
+    List<Address[]> chunks = new ArrayList<>(recipients.length / maxRecipientsPerTransaction + 1);
+    for (int i = 0; i < recipients.length; i += maxRecipientsPerTransaction) {
+      chunks.add(Arrays.copyOfRange(recipients, i, Math.min(recipients.length, i + maxRecipientsPerTransaction)));
+    }
+    return chunks;
+  }
+
+  /**
+   * Writes the message once and parses it back, the parsed message writes the already rendered content as is, so it can be
+   * sent many times, even concurrently, without rendering and encoding it again. The Bcc header is not written, as it would
+   * be if the message was sent by itself.
+   */
+  private MimeMessage render(SenderConnection connection, MimeMessage message) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      message.writeTo(out, IGNORED_HEADERS);
+      SharedByteArrayInputStream content = new SharedByteArrayInputStream(out.toByteArray());
+      if (message instanceof SMTPMessage) {
+        SMTPMessage rendered = new SMTPMessage(connection.getSession(), content);
+        rendered.setMailExtension(((SMTPMessage) message).getMailExtension());
+        rendered.setEnvelopeFrom(((SMTPMessage) message).getEnvelopeFrom());
+        return rendered;
+      }
+      return new MimeMessage(connection.getSession(), content);
+    } catch (IOException | MessagingException e) {
+      throw new SendEmailException("Error while rendering the email: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Creates the {@link MimeMessage} that represents the {@code email}, with all it's changes already saved, ready to be
+   * written to a transport.
+   * <p>
+   * The ESMTP extensions the server advertised are used to skip the transfer encodings: text parts go as raw 8bit when the
+   * server supports 8BITMIME and the headers and addresses go as raw UTF-8, instead of RFC 2047 encoded words, when it
+   * supports SMTPUTF8.
+   */
+  private MimeMessage buildMessage(SenderConnection connection, Email email) throws MessagingException {
+    boolean eightBit = connection.supports8BitMime();
+    boolean utf8 = connection.supportsSmtpUtf8() && hasNonAsciiHeaders(email);
+    InternetAddress from = toAddress(email.getFromAddresses().get(0), utf8);
+    String fromDomain = from.getAddress().substring(from.getAddress().lastIndexOf('@') + 1);
+    // attachments go unencoded if the server accepts binary parts, templates keep the encoded attachments they share. Signed
+    // messages keep them encoded too, binary parts are written as they are and the DKIM body hash could not match them.
+    boolean binary = connection.supportsBinaryMime() && !email.getAttachments().isEmpty() && !(email instanceof RenderedEmail)
+      && !dkimSigner.signs(fromDomain);
+
+    OutgoingMessage m = new OutgoingMessage(connection.getSession());
+    Address[] to = toAddresses(email.getToAddresses(), utf8);
+    Address[] cc = toAddresses(email.getCcAddresses(), utf8);
+    Address[] bcc = toAddresses(email.getBccAddresses(), utf8);
+    m.recipients = concat(to, cc, bcc);
+    m.setSentDate(Calendar.getInstance().getTime());
+    if (utf8) {
+      m.setEnvelopeFrom(from.getAddress());
+      setRawHeader(m, FROM, email.getFromAddresses().subList(0, 1));
+      setRawHeader(m, TO_HEADER, email.getToAddresses());
+      setRawHeader(m, CC_HEADER, email.getCcAddresses());
+      setRawHeader(m, BCC_HEADER, email.getBccAddresses());
+      setRawHeader(m, REPLY_TO, email.getReplyToAddresses());
+      m.setHeader(SUBJECT, raw(email.getSubject()));
+      for (Map.Entry<String, String> entry : email.getHeaders().entries()) {
+        m.addHeader(entry.getKey(), raw(entry.getValue()));
+      }
+    } else {
+      m.setFrom(from);
+      m.setRecipients(TO, to);
+      m.setRecipients(CC, cc);
+      m.setRecipients(BCC, bcc);
+      m.setSubject(email.getSubject());
+      m.setReplyTo(toAddresses(email.getReplyToAddresses(), false));
       for (Map.Entry<String, String> entry : email.getHeaders().entries()) {
         m.addHeader(entry.getKey(), entry.getValue());
       }
+    }
 
-      EmailBody body = email.getBody();
-      List<EmailAttachment> attachments = email.getAttachments();
-      if (attachments.isEmpty()) {
-        m.setDisposition(INLINE);
-        m.setContent(body.getContent(), body.getContentType());
-      } else {
-        MimeMultipart multipart = buildMultipart(body, attachments);
-        m.setContent(multipart, MULTIPART);
-      }
+    EmailBody body = email.getBody();
+    List<EmailAttachment> attachments = email.getAttachments();
+    boolean eightBitBody;
+    if (attachments.isEmpty()) {
+      m.setDisposition(INLINE);
+      eightBitBody = setText(m, body, eightBit, binary);
+    } else {
+      MimeBodyPart bodyPart = new MimeBodyPart();
+      bodyPart.setDisposition(INLINE);
+      eightBitBody = setText(bodyPart, body, eightBit, binary);
+      MimeMultipart multipart = email instanceof RenderedEmail
+        ? buildMultipart(bodyPart, (RenderedEmail) email)
+        : buildMultipart(bodyPart, attachments, binary);
+      m.setContent(multipart, MULTIPART);
+    }
 
-      Transport.send(m);
-    } catch (MessagingException e) {
-      throw new SendEmailException("Error while sending the email: " + e.getMessage(), e);
+    List<String> extensions = new ArrayList<>(2);
+    if (binary) {
+      extensions.add(BINARY_MIME);
+    } else if (eightBitBody) {
+      extensions.add(EIGHT_BIT_MIME);
+    }
+    if (utf8) {
+      extensions.add(SMTP_UTF8);
     }
+    if (!extensions.isEmpty()) {
+      m.setMailExtension(String.join(" ", extensions));
+    }
+
+    m.saveChanges();
+    // signed last, once the message won't change anymore.
+    dkimSigner.sign(m, fromDomain);
+    return m;
   }
 
-  private MimeMultipart buildMultipart(EmailBody body, List<EmailAttachment> attachments) throws MessagingException {
+  private MimeMultipart buildMultipart(MimeBodyPart bodyPart, List<EmailAttachment> attachments, boolean binary)
+    throws MessagingException {
     MimeMultipart multipart = new MimeMultipart();
-    MimeBodyPart bodyPart = new MimeBodyPart();
-    bodyPart.setDisposition(INLINE);
-    bodyPart.setContent(body.getContent(), body.getContentType());
     multipart.addBodyPart(bodyPart);
 
     MimeBodyPart attachmentPart;
     for (EmailAttachment attachment : attachments) {
       try {
-        attachmentPart = new MimeBodyPart();
-        attachmentPart.setDisposition(ATTACHMENT);
-        attachmentPart.setFileName(attachment.getId());
-        DataHandler attachmentDataHandler = new DataHandler(attachment.getContent(), attachment.getContentType());
-        attachmentPart.setDataHandler(attachmentDataHandler);
+        Optional<EncodedAttachment> encoded = binary ? Optional.empty() : attachmentCache.get(attachment);
+        if (encoded.isPresent()) {
+          attachmentPart = encoded.get().toBodyPart();
+        } else {
+          attachmentPart = new MimeBodyPart();
+          attachmentPart.setDisposition(ATTACHMENT);
+          attachmentPart.setFileName(attachment.getId());
+          if (binary) {
+            // written as is, the header is set after the content since setting the content clears it.
+            attachmentPart.setDataHandler(attachment.getContent() instanceof DataSource
+                                            ? new DataHandler((DataSource) attachment.getContent())
+                                            : new DataHandler(attachment.getContent(), attachment.getContentType()));
+            attachmentPart.setHeader(TRANSFER_ENCODING, BINARY);
+          } else if (attachment.getContent() instanceof DataSource) {
+            // streamed content, it's read in chunks while being written. The encoding is set up front, otherwise JavaMail
+            // reads the whole content once just to pick one.
+            attachmentPart.setDataHandler(new DataHandler((DataSource) attachment.getContent()));
+            attachmentPart.setHeader(TRANSFER_ENCODING, BASE64);
+          } else {
+            DataHandler attachmentDataHandler = new DataHandler(attachment.getContent(), attachment.getContentType());
+            attachmentPart.setDataHandler(attachmentDataHandler);
+          }
+        }
         multipart.addBodyPart(attachmentPart);
       } catch (Exception e) {
         throw new EmailException("Error while adding attachment: " + attachment, e);
@@ -120,22 +557,180 @@ public final class SendCommand {
     return multipart;
   }
 
+  /**
+   * Builds the multipart of an email rendered from a template, the attachments were already encoded when the template was
+   * built so their encoded content is written as is.
+   */
+  private MimeMultipart buildMultipart(MimeBodyPart bodyPart, RenderedEmail email) throws MessagingException {
+    MimeMultipart multipart = new SharedBoundaryMultipart(email.getBoundary());
+    multipart.addBodyPart(bodyPart);
+    for (EncodedAttachment attachment : email.getEncodedAttachments()) {
+      multipart.addBodyPart(attachment.toBodyPart());
+    }
+    return multipart;
+  }
+
+  /**
+   * Sets the {@code body} as the content of the {@code part}. If {@code eightBit} is allowed and the content needs it, it's
+   * marked to be written as raw 8bit text instead of letting JavaMail pick quoted-printable or base64 for it.
+   * <p>
+   * The line breaks of a {@code binary} message are not turned into CRLF by the transport, so they are turned here.
+   *
+   * @return true if the content is written as 8bit.
+   */
+  private boolean setText(MimePart part, EmailBody body, boolean eightBit, boolean binary) throws MessagingException {
+    String content = binary ? LINE_BREAK.matcher(body.getContent()).replaceAll(CRLF) : body.getContent();
+    part.setContent(content, body.getContentType());
+    if (eightBit && is8Bit(content)) {
+      // set after the content, otherwise JavaMail would scan the content to pick an encoding for it.
+      part.setHeader(TRANSFER_ENCODING, EIGHT_BIT);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the {@code content} has non ASCII chars and follows the rules of 8bit text (RFC 2045): no NUL chars and
+   *         lines of at most 998 bytes. The line length is measured as UTF-8, which is never shorter than the other charsets.
+   */
+  private static boolean is8Bit(String content) {
+    boolean nonAscii = false;
+    int lineLength = 0;
+    for (int i = 0; i < content.length(); i++) {
+      char c = content.charAt(i);
+      if (c == '\r' || c == '\n') {
+        lineLength = 0;
+      } else if (c == 0) {
+        return false;
+      } else {
+        lineLength += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        if (lineLength > MAX_LINE_LENGTH) {
+          return false;
+        }
+      }
+      nonAscii |= c >= 0x80;
+    }
+    return nonAscii;
+  }
+
+  private static boolean hasNonAsciiHeaders(Email email) {
+    return isNonAscii(email.getSubject())
+           || email.getFromAddresses().stream().anyMatch(SendCommand::isNonAscii)
+           || email.getToAddresses().stream().anyMatch(SendCommand::isNonAscii)
+           || email.getCcAddresses().stream().anyMatch(SendCommand::isNonAscii)
+           || email.getBccAddresses().stream().anyMatch(SendCommand::isNonAscii)
+           || email.getReplyToAddresses().stream().anyMatch(SendCommand::isNonAscii)
+           || email.getHeaders().values().stream().anyMatch(SendCommand::isNonAscii);
+  }
+
+  private static boolean isNonAscii(String value) {
+    return value != null && value.chars().anyMatch(c -> c >= 0x80);
+  }
+
+  /**
+   * JavaMail writes each char of a header as a byte, the value is turned into a string whose chars are it's UTF-8 bytes so
+   * they get written as is.
+   */
+  private static String raw(String value) {
+    return value == null ? null : new String(value.getBytes(UTF_8), ISO_8859_1);
+  }
+
+  private static void setRawHeader(MimeMessage message, String name, List<String> addresses) throws MessagingException {
+    if (!addresses.isEmpty()) {
+      message.setHeader(name, raw(String.join(", ", addresses)));
+    }
+  }
+
+  private static Address[] concat(Address[]... addresses) {
+    return Arrays.stream(addresses).flatMap(Arrays::stream).toArray(Address[]::new);
+  }
 
   /**
    * Converts a {@link List} of {@link String}s representing email addresses into an {@link Address} array.
    */
-  private Address[] toAddresses(List<String> addresses) {
-    return addresses.stream().map(this::toAddress).toArray(Address[]::new);
+  private Address[] toAddresses(List<String> addresses, boolean utf8) {
+    return addresses.stream().map(address -> toAddress(address, utf8)).toArray(Address[]::new);
   }
 
   /**
-   * Converts a simple {@link String} representing an address into an {@link Address} instance
+   * Converts a simple {@link String} representing an address into an {@link Address} instance. If {@code utf8} is allowed,
+   * the address can have non ASCII chars in it's local part and domain (RFC 6532).
    */
-  private Address toAddress(String address) {
+  private InternetAddress toAddress(String address, boolean utf8) {
     try {
+      if (utf8 && isNonAscii(address)) {
+        return toUtf8Address(address);
+      }
       return new InternetAddress(address);
     } catch (AddressException e) {
       throw new EmailException(format("Error while creating %s InternetAddress", address), e);
     }
   }
+
+  /**
+   * JavaMail only parses ASCII addresses, the syntax of the address is validated with it's non ASCII chars replaced, which
+   * keeps the positions of the rest, and the parts of the address are then taken from the original one.
+   */
+  private static InternetAddress toUtf8Address(String address) throws AddressException {
+    StringBuilder ascii = new StringBuilder(address.length());
+    address.chars().forEach(c -> ascii.append(c < 0x80 ? (char) c : 'x'));
+    InternetAddress parsed = new InternetAddress(ascii.toString());
+    int start = address.lastIndexOf('<');
+    int end = address.lastIndexOf('>');
+    InternetAddress result = new InternetAddress();
+    if (start != -1 && end > start) {
+      result.setAddress(address.substring(start + 1, end).trim());
+      if (parsed.getPersonal() != null) {
+        try {
+          result.setPersonal(address.substring(0, start).trim().replaceAll("^\"|\"$", ""), UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+          throw new AddressException(e.getMessage());
+        }
+      }
+    } else {
+      result.setAddress(address.trim());
+    }
+    return result;
+  }
+
+  /**
+   * A message whose recipients are the ones provided when it was built, instead of the ones parsed back from it's headers,
+   * which JavaMail can't parse if they have non ASCII chars.
+   */
+  private static final class OutgoingMessage extends SMTPMessage {
+
+    private Address[] recipients;
+
+    OutgoingMessage(Session session) {
+      super(session);
+    }
+
+    @Override
+    public Address[] getAllRecipients() {
+      return recipients;
+    }
+  }
+
+  /**
+   * Signals that the server could not be reached before the email being sent was accepted by any recipient, it goes through
+   * the per email error handling untouched so the rest of the batch can be sent through another relay.
+   */
+  private static final class UnreachableRelayException extends EmailConnectionException {
+
+    UnreachableRelayException(EmailConnectionException cause) {
+      super(cause.getMessage(), cause);
+    }
+  }
+
+  /**
+   * A "multipart/mixed" that uses a boundary provided up front instead of generating a new one.
+   */
+  private static final class SharedBoundaryMultipart extends MimeMultipart {
+
+    SharedBoundaryMultipart(String boundary) {
+      ContentType type = new ContentType("multipart", "mixed", null);
+      type.setParameter("boundary", boundary);
+      contentType = type.toString();
+    }
+  }
 }
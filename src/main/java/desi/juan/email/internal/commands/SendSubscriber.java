@@ -0,0 +1,191 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.commands;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import desi.juan.email.api.Email;
+import desi.juan.email.api.EmailSubscriber;
+import desi.juan.email.api.Flow;
+import desi.juan.email.api.SendResult;
+import desi.juan.email.internal.exception.SendEmailException;
+
+/**
+ * A {@link Flow.Subscriber} that sends the emails it receives in background.
+ * <p>
+ * At most {@code maxInFlight} emails are being sent at the same time: that many are requested up front and each finished send
+ * requests the next one, so the upstream is only asked for more emails when there is capacity to send them. The outcome of
+ * each email is notified to the listener, a failed send does not cancel the subscription.
+ * <p>
+ * Sends finish in the sender threads, the requests they make are serialized so the subscription is never called concurrently
+ * or reentrantly: the thread that finds no request being made makes it, along with the ones added meanwhile by other threads.
+ * A send that finishes right away, inside {@link #onNext(Email)}, does not request the next email from there, it's requested
+ * from the common pool once onNext returned to the publisher, so a publisher and a sender that fails right away don't
+ * recurse into each other.
+ */
+public final class SendSubscriber implements EmailSubscriber {
+
+  private static final Flow.Subscription CANCELLED = new Flow.Subscription() {
+
+    @Override
+    public void request(long n) {}
+
+    @Override
+    public void cancel() {}
+  };
+
+  private final Function<Email, CompletableFuture<Void>> sender;
+  private final int maxInFlight;
+  private final Consumer<SendResult> listener;
+  private final AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+  private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+  /**
+   * The amount of emails still to be requested, the thread that makes it non zero requests them.
+   */
+  private final AtomicLong pendingRequests = new AtomicLong();
+
+  /**
+   * The sends that did not finish yet, plus one until the upstream terminates.
+   */
+  private final AtomicInteger running = new AtomicInteger(1);
+  private volatile Throwable upstreamError;
+
+  /**
+   * The thread running onNext, if any.
+   */
+  private volatile Thread signalling;
+
+  /**
+   * @param sender      sends an email in background, returning a future completed once it's sent.
+   * @param maxInFlight the maximum amount of emails being sent at the same time.
+   * @param listener    notified with the outcome of each email.
+   */
+  public SendSubscriber(Function<Email, CompletableFuture<Void>> sender, int maxInFlight, Consumer<SendResult> listener) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("Cannot send with less than one email in flight");
+    }
+    this.sender = sender;
+    this.maxInFlight = maxInFlight;
+    this.listener = listener;
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    if (!this.subscription.compareAndSet(null, subscription)) {
+      // a subscriber can only be subscribed once.
+      subscription.cancel();
+      return;
+    }
+    request(maxInFlight);
+  }
+
+  @Override
+  public void onNext(Email email) {
+    running.incrementAndGet();
+    signalling = Thread.currentThread();
+    try {
+      CompletableFuture<Void> send;
+      try {
+        send = sender.apply(email);
+      } catch (RuntimeException e) {
+        send = new CompletableFuture<>();
+        send.completeExceptionally(e);
+      }
+      send.whenComplete((v, error) -> {
+        try {
+          listener.accept(error == null ? SendResult.success(email) : SendResult.failure(email, toSendException(error)));
+        } finally {
+          replenish();
+          finish();
+        }
+      });
+    } finally {
+      signalling = null;
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    subscription.set(CANCELLED);
+    upstreamError = throwable;
+    finish();
+  }
+
+  @Override
+  public void onComplete() {
+    subscription.set(CANCELLED);
+    finish();
+  }
+
+  @Override
+  public CompletableFuture<Void> completion() {
+    return completion;
+  }
+
+  /**
+   * Requests the email that takes the place of one that was sent, in background if the send finished inside onNext.
+   */
+  private void replenish() {
+    if (signalling == Thread.currentThread()) {
+      CompletableFuture.runAsync(() -> request(1));
+    } else {
+      request(1);
+    }
+  }
+
+  private void request(long n) {
+    if (pendingRequests.getAndAdd(n) != 0) {
+      // another thread is requesting, it requests these too.
+      return;
+    }
+    long requested = n;
+    do {
+      subscription.get().request(requested);
+    } while ((requested = pendingRequests.addAndGet(-requested)) != 0);
+  }
+
+  private void finish() {
+    if (running.decrementAndGet() == 0) {
+      if (upstreamError == null) {
+        completion.complete(null);
+      } else {
+        completion.completeExceptionally(upstreamError);
+      }
+    }
+  }
+
+  private static SendEmailException toSendException(Throwable error) {
+    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    return cause instanceof SendEmailException
+      ? (SendEmailException) cause
+      : new SendEmailException("Error while sending the email: " + cause.getMessage(), cause);
+  }
+}
@@ -25,6 +25,9 @@ package desi.juan.email.internal.connection;
 
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.mail.Authenticator;
 import javax.mail.PasswordAuthentication;
@@ -44,6 +47,17 @@ public abstract class AbstractConnection {
   private static final String PASSWORD_NO_USERNAME_ERROR = "Password provided but not username was specified.";
   private static final String USERNAME_NO_PASSWORD_ERROR = "Username provided but not password was specified.";
 
+  /**
+   * Runs the connections that are opened in the background, each one in it's own daemon thread since they are few and short
+   * lived, and a slow server must not hold back the rest of them.
+   */
+  private static final AtomicInteger CONNECTORS = new AtomicInteger();
+  private static final Executor CONNECTOR = r -> {
+    Thread thread = new Thread(r, "email4j-connect-" + CONNECTORS.incrementAndGet());
+    thread.setDaemon(true);
+    thread.start();
+  };
+
   final Session session;
   private final EmailProtocol protocol;
 
@@ -96,6 +110,15 @@ public abstract class AbstractConnection {
     return props;
   }
 
+  /**
+   * Runs the {@code connect} task in the background.
+   *
+   * @return a future completed once the task finishes, exceptionally if it failed.
+   */
+  static CompletableFuture<Void> connectInBackground(Runnable connect) {
+    return CompletableFuture.runAsync(connect, CONNECTOR);
+  }
+
   /**
    * @return the email {@link Session} used by the connection.
    */
@@ -0,0 +1,101 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.connection;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tracks the health of a relay to stop sending through it while it's failing.
+ * <p>
+ * After a number of consecutive failures the breaker opens and rejects all requests, once the retry time elapses a single
+ * request is let through to probe the relay: if it succeeds the breaker closes again, otherwise it stays open for another
+ * retry time.
+ */
+final class CircuitBreaker {
+
+  private enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long retryTime;
+  private final Lock lock = new ReentrantLock();
+  private State state = State.CLOSED;
+  private int failures;
+  private long changedAt;
+
+  CircuitBreaker(int failureThreshold, long retryTime) {
+    this.failureThreshold = failureThreshold;
+    this.retryTime = retryTime;
+  }
+
+  /**
+   * Checks if a request can go through, if the breaker is waiting for a probe the caller that gets true is the probe and it
+   * must report it's outcome.
+   */
+  boolean allowRequest() {
+    lock.lock();
+    try {
+      switch (state) {
+        case CLOSED:
+          return true;
+        default:
+          // a probe that never reported back does not block the relay forever.
+          long now = System.currentTimeMillis();
+          if (now - changedAt >= retryTime) {
+            state = State.HALF_OPEN;
+            changedAt = now;
+            return true;
+          }
+          return false;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void onSuccess() {
+    lock.lock();
+    try {
+      state = State.CLOSED;
+      failures = 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void onFailure() {
+    lock.lock();
+    try {
+      failures++;
+      if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+        state = State.OPEN;
+        changedAt = System.currentTimeMillis();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.connection;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the amount of connections that are used at the same time.
+ * <p>
+ * When adaptive, the limit follows an additive increase / multiplicative decrease policy driven by the replies of the
+ * server: each successful send grows the limit by {@code 1 / limit}, about one more connection after a full round of
+ * successful sends, and each time the server signals congestion the limit is halved, at most once per
+ * {@link #DECREASE_INTERVAL} so a burst of failures from the same overload only counts once. The limit never goes below one
+ * nor above the configured max connections.
+ */
+final class ConcurrencyLimit {
+
+  private static final long DECREASE_INTERVAL = 1000;
+
+  private final int maxLimit;
+  private final boolean adaptive;
+  private final Lock lock = new ReentrantLock(true);
+  private final Condition available = lock.newCondition();
+  private double limit;
+  private int inUse;
+  private long lastDecrease;
+
+  ConcurrencyLimit(int maxLimit, boolean adaptive) {
+    this.maxLimit = maxLimit;
+    this.adaptive = adaptive;
+    this.limit = maxLimit;
+  }
+
+  /**
+   * Takes a slot, waiting up to {@code timeout} milliseconds for one to be available.
+   *
+   * @return true if a slot was acquired, false if the time elapsed.
+   */
+  boolean tryAcquire(long timeout) throws InterruptedException {
+    long remaining = MILLISECONDS.toNanos(timeout);
+    lock.lock();
+    try {
+      while (inUse >= (int) limit) {
+        if (remaining <= 0) {
+          return false;
+        }
+        remaining = available.awaitNanos(remaining);
+      }
+      inUse++;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void release() {
+    lock.lock();
+    try {
+      inUse--;
+      available.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records a send that was accepted by the server.
+   */
+  void onSuccess() {
+    if (!adaptive) {
+      return;
+    }
+    lock.lock();
+    try {
+      int previous = (int) limit;
+      limit = Math.min(maxLimit, limit + 1 / limit);
+      if ((int) limit > previous) {
+        available.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records a send that was throttled by the server or a connection that was dropped or refused.
+   */
+  void onCongestion() {
+    if (!adaptive) {
+      return;
+    }
+    lock.lock();
+    try {
+      long now = System.currentTimeMillis();
+      if (now - lastDecrease >= DECREASE_INTERVAL) {
+        limit = Math.max(1, limit / 2);
+        lastDecrease = now;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the amount of connections that can currently be used at the same time.
+   */
+  int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,371 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.connection;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.URLName;
+import javax.mail.internet.InternetAddress;
+
+import com.sun.mail.smtp.SMTPMessage;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPTransport;
+import com.sun.mail.util.CRLFOutputStream;
+
+/**
+ * An {@link SMTPTransport} that takes advantage of the ESMTP extensions advertised by the server that JavaMail does not use
+ * by itself.
+ * <p>
+ * When the server supports PIPELINING (RFC 2920) the MAIL FROM command and all the RCPT TO commands of a message are written
+ * in a single batch, the responses are then read one by one as JavaMail processes each recipient, so the result of each
+ * recipient is still reported individually. DATA is not part of the batch: if a recipient is rejected the transaction must
+ * still be abortable with RSET, which is no longer possible once the server accepted DATA.
+ * <p>
+ * When the server supports CHUNKING (RFC 3030) the message is sent in BDAT chunks of the configured size instead of DATA, so
+ * it's written without dot-stuffing. Line breaks are still turned into CRLF, as they are with DATA, except for messages that
+ * carry binary parts, marked with a {@code BODY=BINARYMIME} mail extension, whose bytes are all written as they are and can
+ * only be sent this way. The text of those messages must already use CRLF line breaks.
+ * <p>
+ * Messages marked with the {@code SMTPUTF8} mail extension (RFC 6531) have their MAIL FROM and RCPT TO commands written in
+ * UTF-8, JavaMail writes every char as a single byte so internationalized addresses would be mangled otherwise. Messages that
+ * need an extension the server did not advertise are rejected before the transaction starts.
+ */
+final class ExtendedSmtpTransport extends SMTPTransport {
+
+  private static final String MAIL_FROM = "MAIL FROM:";
+  private static final String RCPT_TO = "RCPT TO:";
+  private static final String CRLF = "\r\n";
+  private static final String CHUNKING = "CHUNKING";
+  private static final String BINARY_MIME = "BODY=BINARYMIME";
+  private static final String EIGHT_BIT_MIME = "BODY=8BITMIME";
+  private static final String SMTP_UTF8 = "SMTPUTF8";
+
+  /**
+   * The stream of the server connection, JavaMail keeps it private and BDAT chunks must be written to it directly. If it's
+   * not accessible BDAT is not used.
+   */
+  private static final Field SERVER_OUTPUT = serverOutputField();
+
+  private final String name;
+
+  /**
+   * The size of the BDAT chunks, 0 if BDAT should not be used.
+   */
+  private final int chunkSize;
+  private BdatOutputStream bdat;
+
+  /**
+   * Commands that were already written to the server and whose responses were not read yet, in the order they were sent.
+   */
+  private final Deque<String> pipelined = new ArrayDeque<>();
+
+  private Message message;
+  private Address[] recipients;
+
+  /**
+   * Whether the commands of the message being sent are written in UTF-8.
+   */
+  private boolean utf8;
+
+  ExtendedSmtpTransport(Session session, String name) {
+    super(session, new URLName(name, null, -1, null, null, null), name, false);
+    this.name = name;
+    String chunkSize = session.getProperty("mail." + name + ".chunksize");
+    this.chunkSize = chunkSize != null && SERVER_OUTPUT != null ? Integer.parseInt(chunkSize) : 0;
+  }
+
+  /**
+   * @return true if messages can be sent in BDAT chunks through this transport once it's connected.
+   */
+  boolean supportsChunking() {
+    return chunkSize > 0 && supportsExtension(CHUNKING);
+  }
+
+  @Override
+  public synchronized void sendMessage(Message message, Address[] addresses) throws MessagingException {
+    String extension = message instanceof SMTPMessage ? ((SMTPMessage) message).getMailExtension() : null;
+    if (extension != null) {
+      for (String required : extension.split(" ")) {
+        if (!isSupported(required)) {
+          throw new MessagingException(format("The message requires the %s extension but the server does not support it",
+                                              required));
+        }
+      }
+    }
+    this.message = message;
+    this.recipients = addresses;
+    this.utf8 = extension != null && extension.contains(SMTP_UTF8);
+    try {
+      super.sendMessage(message, addresses);
+    } finally {
+      this.message = null;
+      this.recipients = null;
+      this.utf8 = false;
+      if (!pipelined.isEmpty()) {
+        discardPipelined();
+      }
+    }
+  }
+
+  @Override
+  protected OutputStream data() throws MessagingException {
+    if (!supportsChunking()) {
+      return super.data();
+    }
+    try {
+      bdat = new BdatOutputStream((OutputStream) SERVER_OUTPUT.get(this));
+    } catch (IllegalAccessException e) {
+      return super.data();
+    }
+    return isBinary() ? bdat : new CRLFOutputStream(bdat);
+  }
+
+  @Override
+  protected void finishData() throws IOException, MessagingException {
+    if (bdat == null) {
+      super.finishData();
+      return;
+    }
+    try {
+      bdat.finish();
+    } finally {
+      bdat = null;
+    }
+  }
+
+  @Override
+  protected void sendCommand(String cmd) throws MessagingException {
+    if (!pipelined.isEmpty()) {
+      if (pipelined.peek().equals(cmd)) {
+        // already written, the response is read next.
+        pipelined.poll();
+        return;
+      }
+      // the transaction took another path (i.e. RSET after a failure), the pending responses must be consumed first.
+      drainPipelined();
+    }
+
+    if (cmd.startsWith(MAIL_FROM) && supportsExtension("PIPELINING")) {
+      List<String> rcptCommands = rcptCommands();
+      if (!rcptCommands.isEmpty()) {
+        StringBuilder batch = new StringBuilder(cmd);
+        rcptCommands.forEach(rcpt -> batch.append(CRLF).append(rcpt));
+        super.sendCommand(encode(batch.toString()));
+        pipelined.addAll(rcptCommands);
+        return;
+      }
+    }
+    super.sendCommand(encode(cmd));
+  }
+
+  /**
+   * @return true if the message being sent carries binary parts, which must be written as they are.
+   */
+  private boolean isBinary() {
+    if (!(message instanceof SMTPMessage)) {
+      return false;
+    }
+    String extension = ((SMTPMessage) message).getMailExtension();
+    return extension != null && extension.contains(BINARY_MIME);
+  }
+
+  private boolean isSupported(String mailExtension) {
+    switch (mailExtension) {
+      case BINARY_MIME:
+        return supportsChunking();
+      case EIGHT_BIT_MIME:
+        return supportsExtension("8BITMIME");
+      case SMTP_UTF8:
+        return supportsExtension(SMTP_UTF8);
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * JavaMail writes each char of a command as a byte, when the message is sent with SMTPUTF8 the command is turned into a
+   * string whose chars are the UTF-8 bytes so they get written as is.
+   */
+  private String encode(String cmd) {
+    return utf8 ? new String(cmd.getBytes(UTF_8), ISO_8859_1) : cmd;
+  }
+
+  /**
+   * Builds the RCPT TO commands exactly as {@link SMTPTransport#rcptTo()} does, so they can be recognized when JavaMail issues
+   * them. Returns an empty list if the recipients can't be predicted, in which case the commands are not pipelined.
+   */
+  private List<String> rcptCommands() {
+    // SMTPMessages can override the DSN options per message and those are not visible from here.
+    if (recipients == null || (message instanceof SMTPMessage && ((SMTPMessage) message).getNotifyOptions() != 0)) {
+      return new ArrayList<>();
+    }
+
+    String notify = supportsExtension("DSN") ? session.getProperty("mail." + name + ".dsn.notify") : null;
+
+    List<String> commands = new ArrayList<>(recipients.length);
+    for (Address address : recipients) {
+      if (!(address instanceof InternetAddress) || ((InternetAddress) address).isGroup()) {
+        return new ArrayList<>();
+      }
+      String cmd = RCPT_TO + normalizeAddress(((InternetAddress) address).getAddress());
+      if (notify != null) {
+        cmd += " NOTIFY=" + notify;
+      }
+      commands.add(cmd);
+    }
+    return commands;
+  }
+
+  /**
+   * Reads and discards the responses of the commands that were pipelined but never processed.
+   */
+  private void drainPipelined() throws MessagingException {
+    while (!pipelined.isEmpty()) {
+      pipelined.poll();
+      readServerResponse();
+    }
+  }
+
+  /**
+   * Drains the pipelined responses left after a send, if the responses can't be read the connection is closed since it's
+   * state is unknown.
+   */
+  private void discardPipelined() {
+    try {
+      drainPipelined();
+    } catch (MessagingException | RuntimeException e) {
+      try {
+        close();
+      } catch (MessagingException ignored) {
+        // the connection is being discarded
+      }
+    } finally {
+      pipelined.clear();
+    }
+  }
+
+  private String normalizeAddress(String address) {
+    if (!address.startsWith("<") && !address.endsWith(">")) {
+      return "<" + address + ">";
+    }
+    return address;
+  }
+
+  private static Field serverOutputField() {
+    try {
+      Field field = SMTPTransport.class.getDeclaredField("serverOutput");
+      field.setAccessible(true);
+      return field;
+    } catch (NoSuchFieldException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Buffers the message and writes it to the server in BDAT chunks, the last chunk is written once the whole message was
+   * buffered.
+   * <p>
+   * If the server rejects a chunk the rest of the message is discarded, no more chunks can be sent in the same transaction,
+   * and the rejection is reported once the message is finished.
+   */
+  private final class BdatOutputStream extends OutputStream {
+
+    private final OutputStream server;
+    private final byte[] buffer = new byte[chunkSize];
+    private int count;
+    private SMTPSendFailedException rejection;
+
+    BdatOutputStream(OutputStream server) {
+      this.server = server;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (count == buffer.length) {
+        writeChunk(false);
+      }
+      buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      while (length > 0) {
+        if (count == buffer.length) {
+          writeChunk(false);
+        }
+        int copied = Math.min(length, buffer.length - count);
+        System.arraycopy(bytes, offset, buffer, count, copied);
+        count += copied;
+        offset += copied;
+        length -= copied;
+      }
+    }
+
+    void finish() throws IOException, MessagingException {
+      writeChunk(true);
+      if (rejection != null) {
+        try {
+          simpleCommand("RSET".getBytes(US_ASCII));
+        } catch (MessagingException e) {
+          // the transaction is discarded by the server anyway.
+        }
+        throw rejection;
+      }
+    }
+
+    private void writeChunk(boolean last) throws IOException {
+      if (rejection != null) {
+        count = 0;
+        return;
+      }
+      server.write(("BDAT " + count + (last ? " LAST" : "") + CRLF).getBytes(US_ASCII));
+      server.write(buffer, 0, count);
+      server.flush();
+      count = 0;
+      try {
+        int code = readServerResponse();
+        if (code != 250) {
+          rejection = new SMTPSendFailedException("BDAT", code, getLastServerResponse(), null, null, null, null);
+        }
+      } catch (MessagingException e) {
+        throw new IOException("Error while reading the BDAT response", e);
+      }
+    }
+  }
+}
@@ -26,6 +26,11 @@ package desi.juan.email.internal.connection;
 import static java.lang.String.format;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 import javax.mail.Folder;
 import javax.mail.MessagingException;
@@ -37,10 +42,23 @@ import desi.juan.email.internal.exception.EmailException;
 
 /**
  * A connection with a mail server for retrieving emails from an specific folder.
+ * <p>
+ * Access to the opened folder is guarded by a {@link Lock} instead of the object monitor so threads blocked waiting for the
+ * folder, virtual threads included, do not pin their carrier thread.
+ * <p>
+ * The store can be connected in the background, in which case the connection is created right away and the operations that
+ * need the store wait until it's connected.
  */
 public class MailboxManagerConnection extends AbstractConnection {
 
   private final Store store;
+  private final Lock lock = new ReentrantLock();
+  private final EmailProtocol protocol;
+  private final String username;
+  private final String password;
+  private final String host;
+  private final int port;
+  private final CompletableFuture<Void> connected;
   private Folder folder;
 
   /**
@@ -55,19 +73,49 @@ public class MailboxManagerConnection extends AbstractConnection {
                                   long readTimeout,
                                   long writeTimeout,
                                   Map<String, String> properties)
+  {
+    this(protocol, username, password, host, port, connectionTimeout, readTimeout, writeTimeout, properties, false);
+  }
+
+  /**
+   * Creates a new instance of the of the {@link MailboxManagerConnection} secured by TLS, connecting the store in the
+   * background if {@code connectInBackground} is true.
+   */
+  public MailboxManagerConnection(EmailProtocol protocol,
+                                  String username,
+                                  String password,
+                                  String host,
+                                  int port,
+                                  long connectionTimeout,
+                                  long readTimeout,
+                                  long writeTimeout,
+                                  Map<String, String> properties,
+                                  boolean connectInBackground)
   {
     super(protocol, username, password, host, port, connectionTimeout, readTimeout, writeTimeout, properties);
+    this.protocol = protocol;
+    this.username = username;
+    this.password = password;
+    this.host = host;
+    this.port = port;
     try {
       this.store = session.getStore(protocol.getName());
-
-      if (username != null && password != null) {
-        this.store.connect(username, password);
-      } else {
-        this.store.connect();
-      }
     } catch (MessagingException e) {
       throw new EmailConnectionException(format("Error while acquiring connection with the %s store", protocol), e);
     }
+    if (connectInBackground) {
+      this.connected = connectInBackground(this::connect);
+    } else {
+      connect();
+      this.connected = CompletableFuture.completedFuture(null);
+    }
+  }
+
+  /**
+   * @return a future completed once the store is connected, or completed exceptionally if it couldn't connect.
+   */
+  public CompletableFuture<Void> ready() {
+    return connected.thenApply(Function.identity());
   }
 
   /**
@@ -77,7 +125,9 @@ public class MailboxManagerConnection extends AbstractConnection {
    * If there was an already opened folder and a different one is requested the opened folder will be closed and the new one will
    * be opened.
    */
-  public synchronized Folder getFolder(String mailBoxFolder, int openMode) {
+  public Folder getFolder(String mailBoxFolder, int openMode) {
+    awaitConnected();
+    lock.lock();
     try {
       if (folder != null) {
         if (isCurrentFolder(mailBoxFolder) && folder.isOpen() && folder.getMode() == openMode) {
@@ -91,26 +141,52 @@ public class MailboxManagerConnection extends AbstractConnection {
       return folder;
     } catch (MessagingException e) {
       throw new EmailException(format("Error while opening folder [%s]", mailBoxFolder), e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Runs the {@code action} with the email {@link Folder} of name {@code mailBoxFolder} opened, holding the folder lock until
+   * it's done so no other operation of this connection closes the folder or opens a different one meanwhile.
+   */
+  public <T> T withFolder(String mailBoxFolder, int openMode, Function<Folder, T> action) {
+    awaitConnected();
+    lock.lock();
+    try {
+      return action.apply(getFolder(mailBoxFolder, openMode));
+    } finally {
+      lock.unlock();
     }
   }
 
   /**
    * Closes the current connection folder.
    */
-  public synchronized void closeFolder(boolean expunge) {
+  public void closeFolder(boolean expunge) {
+    lock.lock();
     try {
       if (folder != null && folder.isOpen()) {
         folder.close(expunge);
       }
     } catch (MessagingException e) {
       throw new EmailException(format("Error while closing mailbox folder %s", folder.getName()), e);
+    } finally {
+      lock.unlock();
     }
   }
 
   /**
    * Disconnects {@code this} {@link MailboxManagerConnection} by closing the associated folder and store.
    */
-  public synchronized void disconnect() {
+  public void disconnect() {
+    try {
+      // a store that is still connecting is closed once it's done.
+      connected.join();
+    } catch (CompletionException e) {
+      // the store never connected
+    }
+    lock.lock();
     try {
       closeFolder(false);
     } catch (Exception e) {
@@ -120,7 +196,36 @@ public class MailboxManagerConnection extends AbstractConnection {
         store.close();
       } catch (Exception e) {
         //LOGGER.error(format("Error closing store when disconnecting: %s", e.getMessage()));
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void connect() {
+    try {
+      // the host and port are given explicitly so they are part of the URL of the store and it's folders.
+      if (username != null && password != null) {
+        this.store.connect(host, port, username, password);
+      } else {
+        this.store.connect(host, port, null, null);
+      }
+    } catch (MessagingException e) {
+      throw new EmailConnectionException(format("Error while acquiring connection with the %s store", protocol), e);
+    }
+  }
+
+  /**
+   * Waits until the store is connected, failing if it couldn't connect.
+   */
+  private void awaitConnected() {
+    try {
+      connected.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof EmailConnectionException) {
+        throw (EmailConnectionException) e.getCause();
       }
+      throw new EmailConnectionException(format("Error while acquiring connection with the %s store", protocol), e.getCause());
     }
   }
 
@@ -0,0 +1,92 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.connection;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+
+/**
+ * A connected {@link Transport} that is kept open between sends by a {@link TransportPool}.
+ * <p>
+ * Tracks when the transport was last released and how many messages it carried so the pool can decide whether it can be
+ * reused or not.
+ */
+public final class PooledTransport {
+
+  private final Transport transport;
+  private int sentMessages;
+  private long lastUsed;
+
+  PooledTransport(Transport transport) {
+    this.transport = transport;
+    this.lastUsed = System.currentTimeMillis();
+  }
+
+  /**
+   * Sends a message that has already been saved to the specified {@code recipients} through the underlying transport.
+   */
+  public void sendMessage(Message message, Address[] recipients) throws MessagingException {
+    sentMessages++;
+    transport.sendMessage(message, recipients);
+  }
+
+  /**
+   * @return the underlying {@link Transport}.
+   */
+  public Transport getTransport() {
+    return transport;
+  }
+
+  int getSentMessages() {
+    return sentMessages;
+  }
+
+  long getLastUsed() {
+    return lastUsed;
+  }
+
+  void touch() {
+    lastUsed = System.currentTimeMillis();
+  }
+
+  /**
+   * Checks if the server is still alive, for SMTP transports this issues a NOOP command.
+   */
+  boolean isAlive() {
+    return transport.isConnected();
+  }
+
+  /**
+   * Closes the underlying transport ignoring any error, the connection is discarded anyway.
+   */
+  void closeQuietly() {
+    try {
+      transport.close();
+    } catch (Exception e) {
+      // the connection is being discarded
+    }
+  }
+}
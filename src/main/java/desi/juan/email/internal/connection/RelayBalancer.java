@@ -0,0 +1,195 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import desi.juan.email.internal.SmtpReplies;
+import desi.juan.email.internal.exception.EmailConnectionException;
+import desi.juan.email.internal.exception.SendEmailException;
+
+/**
+ * Spreads the sends across the {@link SenderConnection}s of a set of SMTP relays.
+ * <p>
+ * Each send goes to the relay with the fewest sends in progress relative to it's weight, relays that are equally loaded are
+ * picked by a smooth weighted round robin, so with a light load the sends are still split by weight. Relays whose circuit
+ * breaker is open are skipped until they can be probed again.
+ * <p>
+ * A send that fails before the relay accepted the message, because the relay could not be reached or it replied with a
+ * transient error, is tried again on the next relay. Any other failure is reported as is, the relay may have accepted the
+ * message and sending it again could deliver it twice.
+ */
+public final class RelayBalancer {
+
+  private final List<Relay> relays;
+  private final Lock lock = new ReentrantLock();
+
+  public RelayBalancer(List<SenderConnection> connections, List<Integer> weights) {
+    if (connections.isEmpty() || connections.size() != weights.size()) {
+      throw new IllegalArgumentException("There must be a weight for each one of the relays, and at least one relay");
+    }
+    this.relays = new ArrayList<>(connections.size());
+    for (int i = 0; i < connections.size(); i++) {
+      relays.add(new Relay(connections.get(i), weights.get(i)));
+    }
+  }
+
+  /**
+   * Runs a send through one of the relays, failing over to the other relays if it could not be sent.
+   * <p>
+   * If the send failed and there is no relay left to fail over to, the error of the last send is the one thrown.
+   *
+   * @throws EmailConnectionException if all the relays are out of rotation.
+   */
+  public <T> T execute(Function<SenderConnection, T> send) {
+    List<Relay> tried = new ArrayList<>(relays.size());
+    RuntimeException failure = null;
+    while (true) {
+      Relay relay;
+      try {
+        relay = select(tried);
+      } catch (EmailConnectionException e) {
+        if (failure != null) {
+          failure.addSuppressed(e);
+          throw failure;
+        }
+        throw e;
+      }
+      try {
+        return send.apply(relay.connection);
+      } catch (RuntimeException e) {
+        tried.add(relay);
+        if (tried.size() == relays.size() || !canFailOver(e)) {
+          throw e;
+        }
+        failure = e;
+      } finally {
+        relay.release();
+      }
+    }
+  }
+
+  /**
+   * @return the connections with each one of the relays.
+   */
+  public List<SenderConnection> getConnections() {
+    List<SenderConnection> connections = new ArrayList<>(relays.size());
+    relays.forEach(relay -> connections.add(relay.connection));
+    return connections;
+  }
+
+  /**
+   * Disconnects from all the relays.
+   */
+  public void disconnect() {
+    relays.forEach(relay -> relay.connection.disconnect());
+  }
+
+  /**
+   * Picks the least loaded relay that was not tried yet and is in rotation, with a single relay there is nowhere else to
+   * send so it's always picked.
+   */
+  private Relay select(List<Relay> tried) {
+    lock.lock();
+    try {
+      if (relays.size() == 1) {
+        Relay relay = relays.get(0);
+        relay.outstanding++;
+        return relay;
+      }
+      List<Relay> candidates = new ArrayList<>(relays);
+      candidates.removeAll(tried);
+      int totalWeight = 0;
+      for (Relay relay : candidates) {
+        relay.currentWeight += relay.weight;
+        totalWeight += relay.weight;
+      }
+      candidates.sort((a, b) -> {
+        int byLoad = Long.compare((long) a.outstanding * b.weight, (long) b.outstanding * a.weight);
+        return byLoad != 0 ? byLoad : Integer.compare(b.currentWeight, a.currentWeight);
+      });
+      for (Relay relay : candidates) {
+        // checked in order since the check claims the probe of a relay that is out of rotation.
+        if (relay.connection.isAvailable()) {
+          relay.currentWeight -= totalWeight;
+          relay.outstanding++;
+          return relay;
+        }
+        // a relay out of rotation takes no part in the round, otherwise it would pile up weight while it's skipped and
+        // take a burst of sends once it's back.
+        totalWeight -= relay.weight;
+        relay.currentWeight = 0;
+      }
+      throw new EmailConnectionException("Cannot send the email, all the SMTP relays are failing");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean canFailOver(RuntimeException error) {
+    if (error instanceof SendEmailException && !((SendEmailException) error).getAcceptedRecipients().isEmpty()) {
+      return false;
+    }
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (cause instanceof EmailConnectionException) {
+        return true;
+      }
+    }
+    return SmtpReplies.isTransient(error);
+  }
+
+  private final class Relay {
+
+    private final SenderConnection connection;
+    private final int weight;
+
+    /**
+     * The amount of sends in progress, guarded by the balancer lock.
+     */
+    private int outstanding;
+
+    /**
+     * The smooth weighted round robin counter, guarded by the balancer lock.
+     */
+    private int currentWeight;
+
+    Relay(SenderConnection connection, int weight) {
+      this.connection = connection;
+      this.weight = weight;
+    }
+
+    void release() {
+      lock.lock();
+      try {
+        outstanding--;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
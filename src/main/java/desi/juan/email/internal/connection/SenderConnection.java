@@ -24,14 +24,35 @@
 package desi.juan.email.internal.connection;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 
+import com.google.common.util.concurrent.RateLimiter;
+import desi.juan.email.api.client.configuration.SmtpConfiguration;
 import desi.juan.email.internal.EmailProtocol;
 
 /**
  * A connection with a mail server for sending emails.
+ * <p>
+ * Keeps a pool of connected transports so consecutive sends don't pay for the connection, TLS handshake and authentication
+ * each time, and throttles the sends to the message and recipient rates accepted by the server.
  */
 public final class SenderConnection extends AbstractConnection {
 
+  /**
+   * The headers that the SMTP transport leaves out when it writes a message.
+   */
+  public static final String[] IGNORED_HEADERS = {"Bcc", "Content-Length"};
+
+  private final TransportPool pool;
+  private final int maxConnections;
+
+  /**
+   * Token buckets that keep the sends under the rates accepted by the server, null if the rate is not limited.
+   */
+  private final RateLimiter messageRate;
+  private final RateLimiter recipientRate;
+
   /**
    * Creates a new instance.
    */
@@ -43,8 +64,133 @@ public final class SenderConnection extends AbstractConnection {
                           long connectionTimeout,
                           long readTimeout,
                           long writeTimeout,
-                          Map<String, String> properties)
+                          Map<String, String> properties,
+                          SmtpConfiguration smtpConfig)
   {
     super(protocol, username, password, host, port, connectionTimeout, readTimeout, writeTimeout, properties);
+    // the recipients that are accepted get the email even if others are rejected, the rejected ones are reported apart.
+    session.getProperties().putIfAbsent(protocol.getSendPartialProperty(), "true");
+    session.getProperties().putIfAbsent(protocol.getChunkSizeProperty(), Integer.toString(smtpConfig.getBdatChunkSize()));
+    this.pool = new TransportPool(session, protocol, smtpConfig);
+    this.maxConnections = smtpConfig.getMaxConnections();
+    this.messageRate = rateLimiter(smtpConfig.getMaxMessagesPerSecond());
+    this.recipientRate = rateLimiter(smtpConfig.getMaxRecipientsPerSecond());
+  }
+
+  /**
+   * Waits until a message with the specified amount of {@code recipients} can be sent without exceeding the configured rates,
+   * it must be called before each message is written to a transport.
+   */
+  public void acquireSendPermits(int recipients) {
+    if (messageRate != null) {
+      messageRate.acquire();
+    }
+    if (recipientRate != null && recipients > 0) {
+      recipientRate.acquire(recipients);
+    }
+  }
+
+  /**
+   * Borrows a connected transport, it must be given back through {@link #releaseTransport(PooledTransport)} once the send is
+   * done or through {@link #invalidateTransport(PooledTransport)} if the connection failed.
+   */
+  public PooledTransport borrowTransport() {
+    return pool.borrow();
+  }
+
+  /**
+   * Opens up to {@code connections} connections in the background, bounded by the max connections, so they are ready before
+   * the first sends need them.
+   *
+   * @return a future completed once all the connections are open, or completed exceptionally if one of them failed.
+   */
+  public CompletableFuture<Void> warmUp(int connections) {
+    return CompletableFuture.allOf(IntStream.range(0, Math.min(connections, maxConnections))
+                                     .mapToObj(i -> connectInBackground(pool::addIdle))
+                                     .toArray(CompletableFuture[]::new));
+  }
+
+  /**
+   * Returns a transport to the pool so it can be reused by other sends.
+   */
+  public void releaseTransport(PooledTransport transport) {
+    pool.release(transport);
+  }
+
+  /**
+   * Checks if a borrowed transport can keep being used for more sends or if it should be released.
+   */
+  public boolean canReuseTransport(PooledTransport transport) {
+    return pool.canReuse(transport);
+  }
+
+  /**
+   * Discards a transport that can't be used anymore.
+   */
+  public void invalidateTransport(PooledTransport transport) {
+    pool.invalidate(transport);
+  }
+
+  private static RateLimiter rateLimiter(double permitsPerSecond) {
+    return permitsPerSecond > 0 ? RateLimiter.create(permitsPerSecond) : null;
+  }
+
+  /**
+   * Records a message that was accepted by the server.
+   */
+  public void recordSuccess() {
+    pool.recordSuccess();
+  }
+
+  /**
+   * Records a message that could not be sent, the server replies in the {@code error} drive how many connections can be
+   * used at the same time.
+   */
+  public void recordFailure(Throwable error) {
+    pool.recordFailure(error);
+  }
+
+  /**
+   * @return true if the server accepts messages with binary parts, as far as the connections opened so far tell. Until a
+   *         connection is opened it's unknown so it's false.
+   */
+  public boolean supportsBinaryMime() {
+    return pool.supportsBinaryMime();
+  }
+
+  /**
+   * @return true if the server accepts text parts with 8bit content (RFC 6152), as far as the connections opened so far tell.
+   */
+  public boolean supports8BitMime() {
+    return pool.supports8BitMime();
+  }
+
+  /**
+   * @return true if the server accepts UTF-8 headers and addresses (RFC 6531), as far as the connections opened so far tell.
+   */
+  public boolean supportsSmtpUtf8() {
+    return pool.supportsSmtpUtf8();
+  }
+
+  /**
+   * Checks if the server is healthy enough to send through it. Once a number of consecutive sends fail the server stops
+   * being available until the configured retry time elapses, then a single caller gets true to probe it.
+   */
+  public boolean isAvailable() {
+    return pool.allowRequest();
+  }
+
+  /**
+   * @return the amount of connections that can currently be used at the same time.
+   */
+  public int getConnectionLimit() {
+    return pool.getConnectionLimit();
+  }
+
+  /**
+   * Disconnects {@code this} {@link SenderConnection} by closing all the pooled transports.
+   */
+  public void disconnect() {
+    pool.close();
   }
 }
@@ -0,0 +1,333 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.connection;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import desi.juan.email.api.client.configuration.SmtpConfiguration;
+import desi.juan.email.internal.EmailProtocol;
+import desi.juan.email.internal.SmtpReplies;
+import desi.juan.email.internal.exception.EmailConnectionException;
+
+/**
+ * A bounded pool of connected {@link Transport}s.
+ * <p>
+ * Transports are checked with a NOOP before being handed out again, closed after being idle for more than the configured time
+ * and recycled once they carried the maximum amount of messages configured for a single connection.
+ * <p>
+ * The amount of connections in use at the same time is bounded by a {@link ConcurrencyLimit} that, unless disabled, shrinks
+ * when the server pushes back and grows again while the sends succeed. A {@link CircuitBreaker} tracks if the server is
+ * healthy enough to keep sending through it.
+ */
+final class TransportPool {
+
+  private static final String BINARY_MIME = "BINARYMIME";
+  private static final String EIGHT_BIT_MIME = "8BITMIME";
+  private static final String SMTP_UTF8 = "SMTPUTF8";
+
+  private final Session session;
+  private final EmailProtocol protocol;
+  private final SmtpConfiguration config;
+  private final ConcurrencyLimit limit;
+  private final CircuitBreaker breaker;
+  private final Deque<PooledTransport> idle = new ArrayDeque<>();
+  private final Lock lock = new ReentrantLock();
+  private final ScheduledExecutorService evictor;
+  private volatile boolean closed;
+
+  /**
+   * Whether the server accepts messages with binary parts, learned from the extensions it advertised the last time a
+   * connection was opened.
+   */
+  private volatile boolean binaryMime;
+
+  /**
+   * Whether the server accepts 8bit text parts and UTF-8 headers and addresses, learned the same way.
+   */
+  private volatile boolean eightBitMime;
+  private volatile boolean smtpUtf8;
+
+  TransportPool(Session session, EmailProtocol protocol, SmtpConfiguration config) {
+    this.session = session;
+    this.protocol = protocol;
+    this.config = config;
+    this.limit = new ConcurrencyLimit(config.getMaxConnections(), config.isAdaptiveConcurrency());
+    this.breaker = new CircuitBreaker(config.getRelayFailureThreshold(), config.getRelayRetryTime());
+    if (config.getMaxIdleTime() > 0) {
+      this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "email4j-smtp-evictor");
+        thread.setDaemon(true);
+        return thread;
+      });
+      long period = config.getMaxIdleTime();
+      evictor.scheduleWithFixedDelay(this::evictIdle, period, period, MILLISECONDS);
+    } else {
+      this.evictor = null;
+    }
+  }
+
+  /**
+   * Borrows a connected transport from the pool, reusing an idle one if there is one still alive or opening a new
+   * connection otherwise.
+   * <p>
+   * If all the connections are in use waits up to the configured max wait time for one to be returned.
+   */
+  PooledTransport borrow() {
+    if (closed) {
+      throw new EmailConnectionException("Cannot borrow a connection from a closed pool");
+    }
+    acquirePermit();
+    try {
+      PooledTransport transport;
+      while ((transport = pollIdle()) != null) {
+        if (transport.isAlive()) {
+          return transport;
+        }
+        transport.closeQuietly();
+      }
+      return new PooledTransport(connect());
+    } catch (RuntimeException e) {
+      limit.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens a new connection and leaves it idle in the pool, ready for the next borrow. Idle connections don't count against the
+   * concurrency limit, the connection is discarded if the pool already has as many idle connections as it can use.
+   */
+  void addIdle() {
+    if (closed) {
+      return;
+    }
+    PooledTransport transport = new PooledTransport(connect());
+    transport.touch();
+    lock.lock();
+    try {
+      if (!closed && idle.size() < config.getMaxConnections()) {
+        idle.push(transport);
+        return;
+      }
+    } finally {
+      lock.unlock();
+    }
+    transport.closeQuietly();
+  }
+
+  /**
+   * Returns a healthy transport to the pool, if the transport already sent the maximum amount of messages per connection it
+   * is closed instead.
+   */
+  void release(PooledTransport transport) {
+    try {
+      if (!canReuse(transport)) {
+        transport.closeQuietly();
+        return;
+      }
+      transport.touch();
+      lock.lock();
+      try {
+        idle.push(transport);
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      limit.release();
+    }
+  }
+
+  /**
+   * Checks if a borrowed transport can keep sending messages or if it already reached the max messages per connection.
+   */
+  boolean canReuse(PooledTransport transport) {
+    return !closed && transport.getSentMessages() < config.getMaxMessagesPerConnection();
+  }
+
+  /**
+   * Discards a transport that failed, it's connection is closed and it is never handed out again.
+   */
+  void invalidate(PooledTransport transport) {
+    try {
+      transport.closeQuietly();
+    } finally {
+      limit.release();
+    }
+  }
+
+  /**
+   * Records a send that was accepted by the server, letting the amount of concurrent connections grow.
+   */
+  void recordSuccess() {
+    limit.onSuccess();
+    breaker.onSuccess();
+  }
+
+  /**
+   * Records a failed send, if the server throttled it or the connection was lost the amount of concurrent connections is
+   * reduced and the failure counts against the health of the server. Any other failure means the server is still answering.
+   */
+  void recordFailure(Throwable error) {
+    if (SmtpReplies.isCongestion(error)) {
+      limit.onCongestion();
+      breaker.onFailure();
+    } else {
+      breaker.onSuccess();
+    }
+  }
+
+  /**
+   * @return true if the server is healthy enough to send through it, if it's being probed only the caller that gets true
+   *         can send.
+   */
+  boolean allowRequest() {
+    return breaker.allowRequest();
+  }
+
+  boolean supportsBinaryMime() {
+    return binaryMime;
+  }
+
+  boolean supports8BitMime() {
+    return eightBitMime;
+  }
+
+  boolean supportsSmtpUtf8() {
+    return smtpUtf8;
+  }
+
+  /**
+   * @return the amount of connections that can currently be used at the same time.
+   */
+  int getConnectionLimit() {
+    return limit.getLimit();
+  }
+
+  /**
+   * Closes all the idle transports that exceeded the configured max idle time.
+   */
+  void evictIdle() {
+    long now = System.currentTimeMillis();
+    List<PooledTransport> expired = new ArrayList<>();
+    lock.lock();
+    try {
+      Iterator<PooledTransport> it = idle.iterator();
+      while (it.hasNext()) {
+        PooledTransport transport = it.next();
+        if (now - transport.getLastUsed() >= config.getMaxIdleTime()) {
+          it.remove();
+          expired.add(transport);
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    expired.forEach(PooledTransport::closeQuietly);
+  }
+
+  /**
+   * Closes all the idle transports, transports that are in use get closed as soon as they are returned.
+   */
+  void close() {
+    closed = true;
+    if (evictor != null) {
+      evictor.shutdownNow();
+    }
+    List<PooledTransport> transports;
+    lock.lock();
+    try {
+      transports = new ArrayList<>(idle);
+      idle.clear();
+    } finally {
+      lock.unlock();
+    }
+    transports.forEach(PooledTransport::closeQuietly);
+  }
+
+  /**
+   * Takes the most recently used idle transport, discarding the ones that exceeded the max idle time on the way.
+   */
+  private PooledTransport pollIdle() {
+    long now = System.currentTimeMillis();
+    List<PooledTransport> expired = new ArrayList<>();
+    PooledTransport transport;
+    lock.lock();
+    try {
+      while ((transport = idle.poll()) != null) {
+        if (config.getMaxIdleTime() <= 0 || now - transport.getLastUsed() < config.getMaxIdleTime()) {
+          break;
+        }
+        expired.add(transport);
+      }
+    } finally {
+      lock.unlock();
+    }
+    expired.forEach(PooledTransport::closeQuietly);
+    return transport;
+  }
+
+  private void acquirePermit() {
+    try {
+      if (!limit.tryAcquire(config.getMaxWaitTime())) {
+        throw new EmailConnectionException(format("Timed out after %sms waiting for an available %s connection",
+                                                  config.getMaxWaitTime(), protocol));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EmailConnectionException(format("Interrupted while waiting for an available %s connection", protocol), e);
+    }
+  }
+
+  private Transport connect() {
+    try {
+      ExtendedSmtpTransport transport = new ExtendedSmtpTransport(session, protocol.getName());
+      transport.connect();
+      binaryMime = transport.supportsChunking() && transport.supportsExtension(BINARY_MIME);
+      eightBitMime = transport.supportsExtension(EIGHT_BIT_MIME);
+      smtpUtf8 = transport.supportsExtension(SMTP_UTF8);
+      return transport;
+    } catch (MessagingException e) {
+      // a server we can't connect to, or authenticate with, is not usable whatever the reason.
+      if (SmtpReplies.isCongestion(e)) {
+        limit.onCongestion();
+      }
+      breaker.onFailure();
+      throw new EmailConnectionException(format("Error while acquiring connection with the %s server", protocol), e);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.dkim;
+
+import static desi.juan.email.api.security.DkimCanonicalization.RELAXED;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import desi.juan.email.api.security.DkimCanonicalization;
+
+/**
+ * Canonicalizes the body of a message (RFC 6376, section 3.4) while it's being written, the canonical form is written to the
+ * underlying stream as it's produced so the body is never held in memory.
+ * <p>
+ * Line breaks are normalized to CRLF the same way the SMTP transport does when it writes a message with no binary parts, so
+ * the hashed body matches the one the server gets. Messages with binary parts are written as they are and can't be signed.
+ * Since trailing empty lines are ignored they are only counted, and written once a line with content follows them.
+ */
+final class BodyCanonicalizer extends OutputStream {
+
+  private static final byte[] CRLF = {'\r', '\n'};
+
+  private final boolean relaxed;
+  private final OutputStream out;
+  private final byte[] buffer = new byte[8192];
+  private int count;
+
+  private int pendingLineBreaks;
+  private boolean pendingSpace;
+  private boolean lineEmpty = true;
+  private boolean empty = true;
+  private int last = -1;
+
+  BodyCanonicalizer(DkimCanonicalization canonicalization, OutputStream out) {
+    this.relaxed = canonicalization == RELAXED;
+    this.out = out;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    b &= 0xff;
+    if (b == '\r') {
+      endLine();
+    } else if (b == '\n') {
+      if (last != '\r') {
+        endLine();
+      }
+    } else if (relaxed && (b == ' ' || b == '\t')) {
+      // runs of whitespace are reduced to a single space, and dropped at the end of the line.
+      pendingSpace = true;
+    } else {
+      for (; pendingLineBreaks > 0; pendingLineBreaks--) {
+        append(CRLF);
+      }
+      if (pendingSpace) {
+        append(' ');
+        pendingSpace = false;
+      }
+      append(b);
+      lineEmpty = false;
+      empty = false;
+    }
+    last = b;
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    for (int i = offset; i < offset + length; i++) {
+      write(bytes[i]);
+    }
+  }
+
+  /**
+   * Completes the canonical body, the stream can't be written once it's closed.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!lineEmpty) {
+      append(CRLF);
+    } else if (empty && !relaxed) {
+      // an empty body is a single line break in the simple canonicalization.
+      append(CRLF);
+    }
+    out.write(buffer, 0, count);
+    count = 0;
+    out.close();
+  }
+
+  private void endLine() throws IOException {
+    pendingSpace = false;
+    if (lineEmpty) {
+      pendingLineBreaks++;
+    } else {
+      append(CRLF);
+    }
+    lineEmpty = true;
+  }
+
+  private void append(byte[] bytes) throws IOException {
+    for (byte b : bytes) {
+      append(b);
+    }
+  }
+
+  private void append(int b) throws IOException {
+    if (count == buffer.length) {
+      out.write(buffer, 0, count);
+      count = 0;
+    }
+    buffer[count++] = (byte) b;
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.dkim;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import desi.juan.email.api.security.DkimCanonicalization;
+
+/**
+ * The stream a message is written to in order to sign it, it keeps the header section, which is small and is needed to pick
+ * the signed headers, and hashes the canonical body as it goes through without keeping it.
+ */
+final class DkimHashStream extends OutputStream {
+
+  private final ByteArrayOutputStream headers = new ByteArrayOutputStream();
+  private final MessageDigest digest;
+  private final BodyCanonicalizer body;
+  private boolean inBody;
+  private int lineLength;
+
+  DkimHashStream(DkimCanonicalization bodyCanonicalization, MessageDigest digest) {
+    this.digest = digest;
+    this.body = new BodyCanonicalizer(bodyCanonicalization, new DigestSink(digest));
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (inBody) {
+      body.write(b);
+      return;
+    }
+    headers.write(b);
+    if (b == '\n') {
+      // an empty line ends the header section.
+      inBody = lineLength == 0;
+      lineLength = 0;
+    } else if (b != '\r') {
+      lineLength++;
+    }
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    int i = offset;
+    int end = offset + length;
+    for (; i < end && !inBody; i++) {
+      write(bytes[i]);
+    }
+    if (i < end) {
+      body.write(bytes, i, end - i);
+    }
+  }
+
+  /**
+   * Completes the body hash.
+   *
+   * @return the hash of the canonical body.
+   */
+  byte[] getBodyHash() throws IOException {
+    body.close();
+    return digest.digest();
+  }
+
+  /**
+   * @return the header fields of the message in the order they were written, each with it's folding line breaks but without
+   *         the one that ends it. The chars of the strings are the bytes as they were written.
+   */
+  List<String> getHeaderFields() {
+    List<String> fields = new ArrayList<>();
+    String[] lines = new String(headers.toByteArray(), ISO_8859_1).split("\r?\n");
+    StringBuilder field = null;
+    for (String line : lines) {
+      if (line.isEmpty()) {
+        break;
+      }
+      if (field != null && (line.charAt(0) == ' ' || line.charAt(0) == '\t')) {
+        field.append("\r\n").append(line);
+      } else {
+        if (field != null) {
+          fields.add(field.toString());
+        }
+        field = new StringBuilder(line);
+      }
+    }
+    if (field != null) {
+      fields.add(field.toString());
+    }
+    return fields;
+  }
+
+  private static final class DigestSink extends OutputStream {
+
+    private final MessageDigest digest;
+
+    DigestSink(MessageDigest digest) {
+      this.digest = digest;
+    }
+
+    @Override
+    public void write(int b) {
+      digest.update((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+      digest.update(bytes, offset, length);
+    }
+  }
+}
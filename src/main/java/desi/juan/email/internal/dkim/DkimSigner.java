@@ -0,0 +1,185 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.dkim;
+
+import static desi.juan.email.api.security.DkimCanonicalization.RELAXED;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import com.google.common.collect.ImmutableList;
+import desi.juan.email.api.security.DkimCanonicalization;
+import desi.juan.email.api.security.DkimConfiguration;
+import desi.juan.email.internal.connection.SenderConnection;
+import desi.juan.email.internal.exception.EmailException;
+
+/**
+ * Signs outgoing messages with DKIM (RFC 6376) using rsa-sha256.
+ * <p>
+ * The message is written once to a stream that hashes the canonical body as it's produced and keeps only the header section,
+ * the signature is then added as a header of the same message, so signing needs no buffered copy of the message and no
+ * parsing it back. The private keys are parsed the first time a domain signs and reused afterwards.
+ */
+public final class DkimSigner {
+
+  public static final String DKIM_SIGNATURE = "DKIM-Signature";
+
+  private static final String HASH_ALGORITHM = "SHA-256";
+  private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+  private static final String PEM_LABEL = "-----[^-]+-----";
+
+  private final List<DkimConfiguration> configurations;
+  private final Map<String, PrivateKey> keys = new ConcurrentHashMap<>();
+
+  public DkimSigner(List<DkimConfiguration> configurations) {
+    this.configurations = ImmutableList.copyOf(configurations);
+  }
+
+  /**
+   * @return true if messages from the {@code fromDomain} are signed, because it or one of it's parent domains has a key.
+   */
+  public boolean signs(String fromDomain) {
+    return configurationFor(fromDomain) != null;
+  }
+
+  /**
+   * Signs the {@code message} with the key of the {@code fromDomain}, or the closest parent domain that has one. The message
+   * changes must be already saved, and must not change once signed.
+   *
+   * @return true if the message was signed, false if no key is configured for the domain.
+   */
+  public boolean sign(MimeMessage message, String fromDomain) throws MessagingException {
+    DkimConfiguration configuration = configurationFor(fromDomain);
+    if (configuration == null) {
+      return false;
+    }
+    try {
+      DkimHashStream hashStream = new DkimHashStream(configuration.getBodyCanonicalization(),
+                                                     MessageDigest.getInstance(HASH_ALGORITHM));
+      message.writeTo(hashStream, SenderConnection.IGNORED_HEADERS);
+      String bodyHash = Base64.getEncoder().encodeToString(hashStream.getBodyHash());
+
+      DkimCanonicalization canonicalization = configuration.getHeaderCanonicalization();
+      List<String> signedFields = signedFields(hashStream.getHeaderFields(), configuration.getSignedHeaders());
+      Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+      signature.initSign(keys.computeIfAbsent(configuration.getDomain(), domain -> parseKey(configuration)));
+      List<String> names = new ArrayList<>(signedFields.size());
+      for (String field : signedFields) {
+        names.add(field.substring(0, field.indexOf(':')).trim());
+        signature.update(canonicalize(canonicalization, field).getBytes(ISO_8859_1));
+      }
+
+      String value = format("v=1; a=rsa-sha256; c=%s/%s; d=%s; s=%s; t=%s;\r\n\th=%s;\r\n\tbh=%s;\r\n\tb=",
+                            canonicalization.getTagValue(),
+                            configuration.getBodyCanonicalization().getTagValue(),
+                            configuration.getDomain(),
+                            configuration.getSelector(),
+                            System.currentTimeMillis() / 1000,
+                            String.join(":", names),
+                            bodyHash);
+      String signatureField = canonicalize(canonicalization, DKIM_SIGNATURE + ": " + value);
+      // the signature header itself is hashed without it's trailing line break.
+      signature.update(signatureField.substring(0, signatureField.length() - 2).getBytes(ISO_8859_1));
+      message.setHeader(DKIM_SIGNATURE, value + Base64.getEncoder().encodeToString(signature.sign()));
+      return true;
+    } catch (IOException | GeneralSecurityException e) {
+      throw new MessagingException("Error while DKIM signing the message: " + e.getMessage(), e);
+    }
+  }
+
+  private DkimConfiguration configurationFor(String fromDomain) {
+    if (fromDomain == null) {
+      return null;
+    }
+    String domain = fromDomain.toLowerCase();
+    DkimConfiguration closest = null;
+    for (DkimConfiguration configuration : configurations) {
+      String signingDomain = configuration.getDomain();
+      if ((domain.equals(signingDomain) || domain.endsWith("." + signingDomain))
+          && (closest == null || signingDomain.length() > closest.getDomain().length())) {
+        closest = configuration;
+      }
+    }
+    return closest;
+  }
+
+  /**
+   * Picks the fields of the headers to sign, in the order of the header names. When a header appears many times each
+   * occurrence of it's name picks the next instance from the bottom of the message up, as the verifier does.
+   */
+  private static List<String> signedFields(List<String> fields, List<String> signedHeaders) {
+    List<String> remaining = new ArrayList<>(fields);
+    List<String> signed = new ArrayList<>();
+    for (String name : signedHeaders) {
+      for (int i = remaining.size() - 1; i >= 0; i--) {
+        String field = remaining.get(i);
+        int colon = field.indexOf(':');
+        if (colon != -1 && field.substring(0, colon).trim().equalsIgnoreCase(name)) {
+          signed.add(field);
+          remaining.remove(i);
+          break;
+        }
+      }
+    }
+    return signed;
+  }
+
+  /**
+   * Canonicalizes a header {@code field} (RFC 6376, section 3.4), the result ends with a line break.
+   */
+  static String canonicalize(DkimCanonicalization canonicalization, String field) {
+    if (canonicalization != RELAXED) {
+      return field + "\r\n";
+    }
+    int colon = field.indexOf(':');
+    String name = field.substring(0, colon).trim().toLowerCase();
+    String value = field.substring(colon + 1).replaceAll("\r\n", "").replaceAll("[ \t]+", " ").trim();
+    return name + ":" + value + "\r\n";
+  }
+
+  private static PrivateKey parseKey(DkimConfiguration configuration) {
+    try {
+      String encoded = configuration.getPrivateKey().replaceAll(PEM_LABEL, "").replaceAll("\\s", "");
+      byte[] key = Base64.getDecoder().decode(encoded);
+      return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(key));
+    } catch (GeneralSecurityException | IllegalArgumentException e) {
+      throw new EmailException(format("Error while parsing the DKIM private key of [%s]", configuration), e);
+    }
+  }
+}
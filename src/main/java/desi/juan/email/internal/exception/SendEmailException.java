@@ -23,17 +23,84 @@
  */
 package desi.juan.email.internal.exception;
 
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayList;
+import java.util.List;
+
 public class SendEmailException extends RuntimeException {
 
+  /**
+   * The recipients that got the email, the ones that the server permanently rejected and the ones it temporarily rejected.
+   * All of them are empty if the failure is not tied to specific recipients.
+   */
+  private final List<String> acceptedRecipients;
+  private final List<String> permanentlyRejectedRecipients;
+  private final List<String> temporarilyRejectedRecipients;
+
   public SendEmailException() {
     super();
+    this.acceptedRecipients = emptyList();
+    this.permanentlyRejectedRecipients = emptyList();
+    this.temporarilyRejectedRecipients = emptyList();
   }
 
   public SendEmailException(String message) {
     super(message);
+    this.acceptedRecipients = emptyList();
+    this.permanentlyRejectedRecipients = emptyList();
+    this.temporarilyRejectedRecipients = emptyList();
   }
 
   public SendEmailException(String message, Throwable cause) {
     super(message, cause);
+    this.acceptedRecipients = emptyList();
+    this.permanentlyRejectedRecipients = emptyList();
+    this.temporarilyRejectedRecipients = emptyList();
+  }
+
+  /**
+   * Creates an exception for an email that was rejected for some, or all, of it's recipients.
+   */
+  public SendEmailException(String message,
+                            Throwable cause,
+                            List<String> acceptedRecipients,
+                            List<String> permanentlyRejectedRecipients,
+                            List<String> temporarilyRejectedRecipients) {
+    super(message, cause);
+    this.acceptedRecipients = unmodifiableList(new ArrayList<>(acceptedRecipients));
+    this.permanentlyRejectedRecipients = unmodifiableList(new ArrayList<>(permanentlyRejectedRecipients));
+    this.temporarilyRejectedRecipients = unmodifiableList(new ArrayList<>(temporarilyRejectedRecipients));
+  }
+
+  /**
+   * @return the recipients that got the email even though the send failed for others, sending the email again would deliver
+   *         it twice to them.
+   */
+  public List<String> getAcceptedRecipients() {
+    return acceptedRecipients;
+  }
+
+  /**
+   * @return the recipients the server rejected with a permanent (5xx) reply, retrying would only get the same reply.
+   */
+  public List<String> getPermanentlyRejectedRecipients() {
+    return permanentlyRejectedRecipients;
+  }
+
+  /**
+   * @return the recipients the server rejected with a transient (4xx) reply or that could not be sent because of a transient
+   *         failure, these are the only ones worth retrying.
+   */
+  public List<String> getTemporarilyRejectedRecipients() {
+    return temporarilyRejectedRecipients;
+  }
+
+  /**
+   * @return true if the failure is broken down by recipient.
+   */
+  public boolean hasRecipientResults() {
+    return !permanentlyRejectedRecipients.isEmpty() || !temporarilyRejectedRecipients.isEmpty();
   }
 }
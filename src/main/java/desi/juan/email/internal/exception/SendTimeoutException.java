@@ -0,0 +1,51 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.exception;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Thrown when an email is not sent within the time it had to be sent.
+ * <p>
+ * A send that timed out once it was already talking to the server is not stopped, it's bounded by the connection read and
+ * write timeouts instead, so the email may still be delivered. Sending it again in that case is not idempotent, it could
+ * deliver the email twice.
+ */
+public class SendTimeoutException extends SendEmailException {
+
+  private final boolean inProgress;
+
+  public SendTimeoutException(String message, boolean inProgress) {
+    super(message, new TimeoutException());
+    this.inProgress = inProgress;
+  }
+
+  /**
+   * @return true if the send was still in progress when it timed out, so the email may still be delivered. False if the
+   *         email was discarded before it was sent, in which case it's safe to send it again.
+   */
+  public boolean mayBeDelivered() {
+    return inProgress;
+  }
+}
@@ -0,0 +1,232 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.spool;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.ParseException;
+import javax.mail.util.ByteArrayDataSource;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import desi.juan.email.api.Email;
+import desi.juan.email.api.EmailAttachment;
+import desi.juan.email.api.EmailBody;
+import desi.juan.email.internal.OutgoingEmail;
+import desi.juan.email.internal.exception.EmailException;
+
+/**
+ * Converts outgoing {@link Email}s to a compact binary form and back, so they can be persisted in the spool journal.
+ * <p>
+ * The content of the attachments is always stored, no matter if it came from memory, a file or a stream, the email must be
+ * deliverable even if the original content changes or disappears before the delivery.
+ */
+final class EmailSerializer {
+
+  private static final int VERSION = 1;
+  private static final String CHARSET = "charset";
+
+  /**
+   * Hide constructor.
+   */
+  private EmailSerializer() {}
+
+  static byte[] serialize(Email email) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(VERSION);
+      writeString(out, email.getSubject());
+      writeStrings(out, email.getFromAddresses());
+      writeStrings(out, email.getToAddresses());
+      writeStrings(out, email.getBccAddresses());
+      writeStrings(out, email.getCcAddresses());
+      writeStrings(out, email.getReplyToAddresses());
+
+      Multimap<String, String> headers = email.getHeaders();
+      out.writeInt(headers.size());
+      for (Map.Entry<String, String> header : headers.entries()) {
+        writeString(out, header.getKey());
+        writeString(out, header.getValue());
+      }
+
+      EmailBody body = email.getBody();
+      writeString(out, body.getContent());
+      ContentType bodyType = new ContentType(body.getContentType());
+      writeString(out, bodyType.getBaseType());
+      writeString(out, bodyType.getParameter(CHARSET));
+
+      List<EmailAttachment> attachments = email.getAttachments();
+      out.writeInt(attachments.size());
+      for (EmailAttachment attachment : attachments) {
+        writeString(out, attachment.getId());
+        writeString(out, attachment.getContentType());
+        out.writeInt(attachment.getHeaders().size());
+        for (Map.Entry<String, String> header : attachment.getHeaders().entrySet()) {
+          writeString(out, header.getKey());
+          writeString(out, header.getValue());
+        }
+        writeBytes(out, content(attachment));
+      }
+    } catch (IOException | ParseException e) {
+      throw new EmailException("Error while serializing the email: " + e.getMessage(), e);
+    }
+    return bytes.toByteArray();
+  }
+
+  static Email deserialize(byte[] data) {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new EmailException("Cannot read a spooled email with format version " + version);
+      }
+      String subject = readString(in);
+      List<String> from = readStrings(in);
+      List<String> to = readStrings(in);
+      List<String> bcc = readStrings(in);
+      List<String> cc = readStrings(in);
+      List<String> replyTo = readStrings(in);
+
+      Multimap<String, String> headers = ArrayListMultimap.create();
+      int headerCount = in.readInt();
+      for (int i = 0; i < headerCount; i++) {
+        headers.put(readString(in), readString(in));
+      }
+
+      String content = readString(in);
+      String bodyType = readString(in);
+      String charset = readString(in);
+      EmailBody body = new EmailBody(content, charset != null ? Charset.forName(charset) : UTF_8, bodyType);
+
+      int attachmentCount = in.readInt();
+      List<EmailAttachment> attachments = new ArrayList<>(attachmentCount);
+      for (int i = 0; i < attachmentCount; i++) {
+        String id = readString(in);
+        String contentType = readString(in);
+        int attachmentHeaderCount = in.readInt();
+        Map<String, String> attachmentHeaders = new HashMap<>();
+        for (int j = 0; j < attachmentHeaderCount; j++) {
+          attachmentHeaders.put(readString(in), readString(in));
+        }
+        ByteArrayDataSource source = new ByteArrayDataSource(readBytes(in), contentType);
+        source.setName(id);
+        attachments.add(new EmailAttachment(id, source, contentType, attachmentHeaders));
+      }
+      return new OutgoingEmail(subject, from, to, bcc, cc, replyTo, body, attachments, headers);
+    } catch (IOException e) {
+      throw new EmailException("Error while reading a spooled email: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Converts the envelope an email is delivered to, when it's not the recipients of the email itself.
+   */
+  static byte[] serializeRecipients(List<String> recipients) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      writeStrings(out, recipients);
+    } catch (IOException e) {
+      throw new EmailException("Error while serializing the recipients: " + e.getMessage(), e);
+    }
+    return bytes.toByteArray();
+  }
+
+  static List<String> deserializeRecipients(byte[] data) {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+      return readStrings(in);
+    } catch (IOException e) {
+      throw new EmailException("Error while reading the recipients of a spooled email: " + e.getMessage(), e);
+    }
+  }
+
+  private static byte[] content(EmailAttachment attachment) throws IOException {
+    Object content = attachment.getContent();
+    if (content instanceof byte[]) {
+      return (byte[]) content;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataHandler handler = content instanceof DataSource
+      ? new DataHandler((DataSource) content)
+      : new DataHandler(content, attachment.getContentType());
+    handler.writeTo(out);
+    return out.toByteArray();
+  }
+
+  private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+    out.writeInt(values.size());
+    for (String value : values) {
+      writeString(out, value);
+    }
+  }
+
+  private static List<String> readStrings(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    List<String> values = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      values.add(readString(in));
+    }
+    return values;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    writeBytes(out, value != null ? value.getBytes(UTF_8) : null);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = readBytes(in);
+    return bytes != null ? new String(bytes, UTF_8) : null;
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(value.length);
+    out.write(value);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] value = new byte[length];
+    in.readFully(value);
+    return value;
+  }
+}
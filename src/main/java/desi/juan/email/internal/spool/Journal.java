@@ -0,0 +1,252 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.spool;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append only log of the spool operations, backed by a memory mapped file so appending a record is a memory copy.
+ * <p>
+ * Each record is laid out as {@code [length][crc][type][id][data]}, the length being written last so a record that was not
+ * completely written when the process died is never read back, and the CRC discarding the ones that were torn by the OS.
+ * Records survive the process crashing as soon as they are appended, the OS writes them to the disk on it's own schedule or
+ * when the journal is forced.
+ * <p>
+ * This class is not thread safe, the {@link OutboundSpool} serializes the access to it, except for {@link #force()}.
+ */
+final class Journal {
+
+  static final byte ENQUEUED = 1;
+  static final byte RETRIED = 2;
+  static final byte REMOVED = 3;
+  static final byte ENVELOPE = 4;
+
+  private static final int HEADER_SIZE = 4 + 4;
+  private static final int TYPE_AND_ID_SIZE = 1 + 8;
+  private static final int MIN_SIZE = 1024 * 1024;
+  private static final int RETRY_SIZE = 4 + 8;
+
+  private final Path file;
+  private FileChannel channel;
+  private volatile MappedByteBuffer buffer;
+  private int position;
+
+  /**
+   * Reads the records of a journal.
+   */
+  interface Visitor {
+
+    void visit(byte type, long id, int dataOffset, int dataLength);
+  }
+
+  Journal(Path file) throws IOException {
+    this.file = file;
+    this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+    try {
+      this.buffer = map(channel, Math.max(MIN_SIZE, channel.size()));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the size in the journal of a record with {@code dataLength} bytes of data.
+   */
+  static int recordSize(int dataLength) {
+    return HEADER_SIZE + TYPE_AND_ID_SIZE + dataLength;
+  }
+
+  /**
+   * @return the size in the journal of the records that a compaction keeps for the {@code entry}.
+   */
+  static int entrySize(SpoolEntry entry) {
+    int size = recordSize(entry.getLength());
+    if (entry.getEnvelope() != null) {
+      size += recordSize(entry.getEnvelopeLength());
+    }
+    if (entry.getAttempts() > 0) {
+      size += recordSize(RETRY_SIZE);
+    }
+    return size;
+  }
+
+  /**
+   * Reads all the valid records from the beginning of the journal, stopping at the first one that was not completely
+   * written which is where the next record will be appended.
+   */
+  void replay(Visitor visitor) {
+    int offset = 0;
+    while (offset + HEADER_SIZE <= buffer.capacity()) {
+      int length = buffer.getInt(offset);
+      if (length < TYPE_AND_ID_SIZE || offset + HEADER_SIZE + length > buffer.capacity()
+          || buffer.getInt(offset + 4) != crc(offset + HEADER_SIZE, length)) {
+        break;
+      }
+      visitor.visit(buffer.get(offset + HEADER_SIZE), buffer.getLong(offset + HEADER_SIZE + 1),
+                    offset + HEADER_SIZE + TYPE_AND_ID_SIZE, length - TYPE_AND_ID_SIZE);
+      offset += HEADER_SIZE + length;
+    }
+    position = offset;
+    if (position + 4 <= buffer.capacity() && buffer.getInt(position) != 0) {
+      // leftovers of a torn record, they are cleared so they are not mistaken for a valid record once new ones are appended.
+      for (int i = position; i < buffer.capacity(); i++) {
+        buffer.put(i, (byte) 0);
+      }
+    }
+  }
+
+  /**
+   * Appends a record, growing the journal if there is no room for it.
+   *
+   * @return the position of the record data in the journal.
+   */
+  int append(byte type, long id, byte[] data) throws IOException {
+    int length = TYPE_AND_ID_SIZE + data.length;
+    ensureCapacity(HEADER_SIZE + length);
+    region(position + HEADER_SIZE, length).put(type).putLong(id).put(data);
+    buffer.putInt(position + 4, crc(position + HEADER_SIZE, length));
+    buffer.putInt(position, length);
+    int dataOffset = position + HEADER_SIZE + TYPE_AND_ID_SIZE;
+    position += HEADER_SIZE + length;
+    return dataOffset;
+  }
+
+  byte[] read(int offset, int length) {
+    byte[] data = new byte[length];
+    region(offset, length).get(data);
+    return data;
+  }
+
+  /**
+   * @return the amount of bytes used by the records in the journal.
+   */
+  int size() {
+    return position;
+  }
+
+  /**
+   * Rewrites the journal keeping only the records of the provided {@code entries}, whose offsets are updated to point to the
+   * new journal. If the compaction fails the current journal is left untouched.
+   */
+  void compact(List<SpoolEntry> entries) throws IOException {
+    Path compacted = Paths.get(file.toString() + ".compact");
+    Files.deleteIfExists(compacted);
+    Journal target = new Journal(compacted);
+    int[] offsets = new int[entries.size()];
+    try {
+      for (int i = 0; i < entries.size(); i++) {
+        SpoolEntry entry = entries.get(i);
+        offsets[i] = target.append(ENQUEUED, entry.getId(), read(entry.getOffset(), entry.getLength()));
+        if (entry.getEnvelope() != null) {
+          target.append(ENVELOPE, entry.getId(), EmailSerializer.serializeRecipients(entry.getEnvelope()));
+        }
+        if (entry.getAttempts() > 0) {
+          target.append(RETRIED, entry.getId(), retry(entry.getAttempts(), entry.getNextAttempt()));
+        }
+      }
+      target.buffer.force();
+      Files.move(compacted, file, ATOMIC_MOVE, REPLACE_EXISTING);
+    } catch (IOException | RuntimeException e) {
+      target.channel.close();
+      Files.deleteIfExists(compacted);
+      throw e;
+    }
+
+    channel.close();
+    channel = target.channel;
+    buffer = target.buffer;
+    position = target.position;
+    for (int i = 0; i < entries.size(); i++) {
+      entries.get(i).setOffset(offsets[i]);
+    }
+  }
+
+  /**
+   * Writes all the appended records to the disk. It can be called while another thread appends, the records appended before
+   * it's called are written no matter if the journal grew or was compacted meanwhile.
+   */
+  void force() {
+    buffer.force();
+  }
+
+  void close() throws IOException {
+    buffer.force();
+    channel.close();
+  }
+
+  /**
+   * @return the data of a {@link #RETRIED} record.
+   */
+  static byte[] retry(int attempts, long nextAttempt) {
+    return ByteBuffer.allocate(RETRY_SIZE).putInt(attempts).putLong(nextAttempt).array();
+  }
+
+  private void ensureCapacity(int recordSize) throws IOException {
+    long required = (long) position + recordSize;
+    if (required > buffer.capacity()) {
+      buffer = map(channel, Math.max(required, buffer.capacity() * 2L));
+    }
+  }
+
+  private int crc(int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(region(offset, length));
+    return (int) crc.getValue();
+  }
+
+  /**
+   * @return a view of a region of the journal, with it's own position and limit.
+   */
+  private ByteBuffer region(int offset, int length) {
+    ByteBuffer region = buffer.duplicate();
+    // through Buffer, ByteBuffer overrides these methods since Java 9 and calling the overrides would break Java 8 runtimes.
+    ((Buffer) region).position(offset);
+    ((Buffer) region).limit(offset + length);
+    return region;
+  }
+
+  private static MappedByteBuffer map(FileChannel channel, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("The spool journal cannot grow beyond 2GB");
+    }
+    return channel.map(READ_WRITE, 0, size);
+  }
+}
@@ -0,0 +1,418 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.spool;
+
+import static desi.juan.email.internal.spool.Journal.ENQUEUED;
+import static desi.juan.email.internal.spool.Journal.ENVELOPE;
+import static desi.juan.email.internal.spool.Journal.REMOVED;
+import static desi.juan.email.internal.spool.Journal.RETRIED;
+import static java.util.Comparator.comparingLong;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import desi.juan.email.api.Email;
+import desi.juan.email.api.SendResult;
+import desi.juan.email.api.client.configuration.SmtpConfiguration;
+import desi.juan.email.internal.SmtpReplies;
+import desi.juan.email.internal.commands.SendCommand;
+import desi.juan.email.internal.connection.RelayBalancer;
+import desi.juan.email.internal.exception.EmailException;
+import desi.juan.email.internal.exception.SendEmailException;
+
+/**
+ * A durable queue of emails waiting to be delivered.
+ * <p>
+ * Enqueued emails are appended to a {@link Journal} in the spool directory and delivered by a background thread, the ones
+ * that fail with a transient error are retried with an exponential backoff until the max attempts are reached, only to the
+ * recipients that were rejected temporarily. Emails that were not delivered when the application stopped are delivered once
+ * the spool is opened again, so delivery is at least once: an email whose delivery was in progress when the application
+ * died is sent again.
+ * <p>
+ * An email is written to the disk before {@link #enqueue(Email)} returns, so it survives the machine crashing too. The
+ * emails enqueued while the journal is being written to the disk are written together by the next of them, instead of one
+ * disk write each. The outcome of the deliveries is not written right away, if it's lost the email is sent again, or retried
+ * sooner, once the spool is opened again. A failure to record it in the journal is notified to the spool listener.
+ * <p>
+ * Once most of the journal is made of emails that were already delivered it's compacted.
+ */
+public final class OutboundSpool {
+
+  private static final String JOURNAL_FILE = "outbound.journal";
+  private static final int COMPACTION_THRESHOLD = 1024 * 1024;
+  private static final byte[] NO_DATA = new byte[0];
+
+  private final SendCommand sendCommand;
+  private final RelayBalancer relays;
+  private final int maxAttempts;
+  private final long retryDelay;
+  private final long maxRetryDelay;
+  private final Optional<Consumer<SendResult>> listener;
+  private final Journal journal;
+
+  private final Lock lock = new ReentrantLock();
+  private final Condition ready = lock.newCondition();
+
+  /**
+   * Held while the journal is written to the disk, the enqueues that wait for it are written by the next force.
+   */
+  private final Lock forceLock = new ReentrantLock();
+  private final Map<Long, SpoolEntry> entries = new HashMap<>();
+  private final PriorityQueue<SpoolEntry> queue = new PriorityQueue<>(comparingLong(SpoolEntry::getNextAttempt)
+                                                                        .thenComparingLong(SpoolEntry::getId));
+  private final Thread worker;
+  private long nextId;
+
+  /**
+   * The amount of journal bytes used by the latest records of the emails that are still waiting, the rest can be discarded
+   * by a compaction.
+   */
+  private long liveBytes;
+
+  /**
+   * The amount of enqueued emails appended to the journal, guarded by the lock, and the amount of them that were already
+   * written to the disk, guarded by the force lock.
+   */
+  private long appended;
+  private long forced;
+  private volatile boolean closed;
+
+  public OutboundSpool(SendCommand sendCommand, RelayBalancer relays, SmtpConfiguration config) {
+    Path directory = config.getSpoolDirectory()
+      .orElseThrow(() -> new IllegalArgumentException("The configuration does not define a spool directory"));
+    this.sendCommand = sendCommand;
+    this.relays = relays;
+    this.maxAttempts = config.getSpoolMaxAttempts();
+    this.retryDelay = config.getSpoolRetryDelay();
+    this.maxRetryDelay = config.getSpoolMaxRetryDelay();
+    this.listener = config.getSpoolListener();
+    try {
+      Files.createDirectories(directory);
+      this.journal = new Journal(directory.resolve(JOURNAL_FILE));
+    } catch (IOException e) {
+      throw new EmailException("Error while opening the outbound spool at " + directory, e);
+    }
+    recover();
+    this.worker = new Thread(this::deliver, "email4j-smtp-spool");
+    this.worker.setDaemon(true);
+    this.worker.start();
+  }
+
+  /**
+   * Persists the {@code email} in the spool, it's delivered in background as soon as possible. Returns once the email is
+   * written to the disk.
+   */
+  public void enqueue(Email email) {
+    if (closed) {
+      throw new SendEmailException("Cannot enqueue the email, the spool is closed");
+    }
+    byte[] data = EmailSerializer.serialize(email);
+    long sequence;
+    lock.lock();
+    try {
+      long id = nextId++;
+      SpoolEntry entry = new SpoolEntry(id, journal.append(ENQUEUED, id, data), data.length);
+      entries.put(id, entry);
+      queue.add(entry);
+      liveBytes += Journal.entrySize(entry);
+      sequence = ++appended;
+      ready.signal();
+    } catch (IOException e) {
+      throw new SendEmailException("Error while enqueuing the email: " + e.getMessage(), e);
+    } finally {
+      lock.unlock();
+    }
+    force(sequence);
+  }
+
+  /**
+   * @return the amount of emails waiting to be delivered.
+   */
+  public int size() {
+    lock.lock();
+    try {
+      return entries.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stops the delivery, waiting for the email that is being delivered if any. The emails that are still waiting remain in
+   * the spool and are delivered the next time it's opened.
+   */
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      ready.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      worker.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    lock.lock();
+    try {
+      journal.close();
+    } catch (IOException e) {
+      throw new EmailException("Error while closing the outbound spool", e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Rebuilds the state of the spool from the journal.
+   */
+  private void recover() {
+    journal.replay((type, id, offset, length) -> {
+      switch (type) {
+        case ENQUEUED:
+          entries.put(id, new SpoolEntry(id, offset, length));
+          break;
+        case RETRIED:
+          SpoolEntry entry = entries.get(id);
+          if (entry != null) {
+            ByteBuffer retry = ByteBuffer.wrap(journal.read(offset, length));
+            entry.retryAt(retry.getInt(), retry.getLong());
+          }
+          break;
+        case ENVELOPE:
+          SpoolEntry addressed = entries.get(id);
+          if (addressed != null) {
+            addressed.setEnvelope(EmailSerializer.deserializeRecipients(journal.read(offset, length)), length);
+          }
+          break;
+        case REMOVED:
+          entries.remove(id);
+          break;
+        default:
+          // unknown records are skipped.
+      }
+      nextId = Math.max(nextId, id + 1);
+    });
+    queue.addAll(entries.values());
+    liveBytes = entries.values().stream().mapToLong(Journal::entrySize).sum();
+  }
+
+  private void deliver() {
+    while (true) {
+      SpoolEntry entry;
+      byte[] data;
+      lock.lock();
+      try {
+        while (!closed && !isDue(queue.peek())) {
+          if (queue.isEmpty()) {
+            ready.awaitUninterruptibly();
+          } else {
+            ready.await(queue.peek().getNextAttempt() - System.currentTimeMillis(), MILLISECONDS);
+          }
+        }
+        if (closed) {
+          return;
+        }
+        entry = queue.poll();
+        data = journal.read(entry.getOffset(), entry.getLength());
+      } catch (InterruptedException e) {
+        return;
+      } finally {
+        lock.unlock();
+      }
+
+      Email email;
+      try {
+        email = EmailSerializer.deserialize(data);
+      } catch (RuntimeException e) {
+        // the entry can never be delivered, if the removal is not recorded it's discarded again once the spool is reopened.
+        try {
+          remove(entry);
+        } catch (IOException ignored) {
+          // nothing to notify, there is no email.
+        }
+        continue;
+      }
+
+      List<String> envelope = entry.getEnvelope();
+      try {
+        if (envelope == null) {
+          sendCommand.send(relays, email);
+          notify(SendResult.success(email));
+        } else {
+          sendCommand.sendToEnvelope(relays, email, envelope);
+          notify(SendResult.success(email, envelope));
+        }
+        remove(entry, email);
+      } catch (RuntimeException e) {
+        int attempts = entry.getAttempts() + 1;
+        SendEmailException error = e instanceof SendEmailException
+          ? (SendEmailException) e
+          : new SendEmailException("Error while sending the email: " + e.getMessage(), e);
+        if (error.hasRecipientResults()) {
+          // only the recipients that were rejected temporarily are retried, the rest already got the email or never will.
+          List<String> retryable = error.getTemporarilyRejectedRecipients();
+          if (attempts >= maxAttempts || retryable.isEmpty()) {
+            notify(SendResult.failure(email, error));
+            remove(entry, email);
+          } else {
+            retry(entry, email, attempts, retryable);
+          }
+        } else if (attempts >= maxAttempts || SmtpReplies.isPermanent(e)) {
+          notify(SendResult.failure(email, error));
+          remove(entry, email);
+        } else {
+          retry(entry, email, attempts, envelope);
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits until the enqueued email with the {@code sequence} is written to the disk, writing it and all the ones enqueued
+   * before it unless another enqueue did it meanwhile.
+   */
+  private void force(long sequence) {
+    forceLock.lock();
+    try {
+      if (forced >= sequence) {
+        return;
+      }
+      long target;
+      lock.lock();
+      try {
+        target = appended;
+      } finally {
+        lock.unlock();
+      }
+      journal.force();
+      forced = target;
+    } finally {
+      forceLock.unlock();
+    }
+  }
+
+  private boolean isDue(SpoolEntry entry) {
+    return entry != null && entry.getNextAttempt() <= System.currentTimeMillis();
+  }
+
+  /**
+   * Removes the entry of an {@code email} that is done, notifying the spool listener if the removal is not recorded.
+   */
+  private void remove(SpoolEntry entry, Email email) {
+    try {
+      remove(entry);
+    } catch (IOException e) {
+      notify(SendResult.failure(email, new SendEmailException("Error while recording that the email is done in the spool, it's "
+                                                              + "sent again once the spool is reopened: " + e.getMessage(), e)));
+    }
+  }
+
+  private void remove(SpoolEntry entry) throws IOException {
+    lock.lock();
+    try {
+      entries.remove(entry.getId());
+      liveBytes -= Journal.entrySize(entry);
+      journal.append(REMOVED, entry.getId(), NO_DATA);
+      compactIfNeeded();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Schedules another delivery attempt of the email to the {@code envelope} recipients, null meaning all the recipients of
+   * the email, notifying the spool listener if the new attempt is not recorded.
+   */
+  private void retry(SpoolEntry entry, Email email, int attempts, List<String> envelope) {
+    IOException failure = null;
+    lock.lock();
+    long size = Journal.entrySize(entry);
+    try {
+      if (envelope != null && !envelope.equals(entry.getEnvelope())) {
+        byte[] recipients = EmailSerializer.serializeRecipients(envelope);
+        entry.setEnvelope(envelope, recipients.length);
+        journal.append(ENVELOPE, entry.getId(), recipients);
+      }
+      entry.retryAt(attempts, System.currentTimeMillis() + backoff(attempts));
+      journal.append(RETRIED, entry.getId(), Journal.retry(entry.getAttempts(), entry.getNextAttempt()));
+    } catch (IOException e) {
+      failure = e;
+    } finally {
+      // the previous envelope and retry records of the email are replaced by the new ones.
+      liveBytes += Journal.entrySize(entry) - size;
+      queue.add(entry);
+      lock.unlock();
+    }
+    if (failure != null) {
+      notify(SendResult.failure(email, new SendEmailException("Error while recording the retry of the email in the spool, it's "
+                                                              + "still retried but from it's previous state once the spool is "
+                                                              + "reopened: " + failure.getMessage(), failure)));
+    }
+  }
+
+  /**
+   * @return the time to wait after the {@code attempts} failed attempt, doubling the retry delay each time.
+   */
+  private long backoff(int attempts) {
+    long delay = retryDelay << Math.min(attempts - 1, 32);
+    return delay < 0 || delay > maxRetryDelay ? maxRetryDelay : delay;
+  }
+
+  private void compactIfNeeded() {
+    if (journal.size() > COMPACTION_THRESHOLD && journal.size() - liveBytes > liveBytes) {
+      List<SpoolEntry> live = new ArrayList<>(entries.values());
+      live.sort(comparingLong(SpoolEntry::getId));
+      try {
+        journal.compact(live);
+      } catch (IOException e) {
+        // the journal is left as it was, the compaction is attempted again on the next removal.
+        return;
+      }
+      liveBytes = journal.size();
+    }
+  }
+
+  private void notify(SendResult result) {
+    try {
+      listener.ifPresent(l -> l.accept(result));
+    } catch (RuntimeException e) {
+      // the listener failures must not stop the delivery.
+    }
+  }
+}
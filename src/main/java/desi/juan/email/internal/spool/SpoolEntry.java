@@ -0,0 +1,106 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.spool;
+
+import java.util.List;
+
+/**
+ * The state of an email waiting in the spool, the email itself stays in the journal until it's delivery is attempted.
+ */
+final class SpoolEntry {
+
+  private final long id;
+  private final int length;
+  private int offset;
+  private int attempts;
+  private long nextAttempt;
+  private List<String> envelope;
+  private int envelopeLength;
+
+  SpoolEntry(long id, int offset, int length) {
+    this.id = id;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  long getId() {
+    return id;
+  }
+
+  /**
+   * @return the position in the journal of the serialized email.
+   */
+  int getOffset() {
+    return offset;
+  }
+
+  void setOffset(int offset) {
+    this.offset = offset;
+  }
+
+  /**
+   * @return the size in bytes of the serialized email.
+   */
+  int getLength() {
+    return length;
+  }
+
+  /**
+   * @return the amount of delivery attempts that already failed.
+   */
+  int getAttempts() {
+    return attempts;
+  }
+
+  /**
+   * @return the time in milliseconds since the epoch when the delivery can be attempted again.
+   */
+  long getNextAttempt() {
+    return nextAttempt;
+  }
+
+  /**
+   * @return the recipients the email is delivered to, null if it's delivered to the To, Cc and Bcc addresses of the email.
+   */
+  List<String> getEnvelope() {
+    return envelope;
+  }
+
+  /**
+   * @return the size in bytes of the serialized envelope.
+   */
+  int getEnvelopeLength() {
+    return envelopeLength;
+  }
+
+  void setEnvelope(List<String> envelope, int envelopeLength) {
+    this.envelope = envelope;
+    this.envelopeLength = envelopeLength;
+  }
+
+  void retryAt(int attempts, long nextAttempt) {
+    this.attempts = attempts;
+    this.nextAttempt = nextAttempt;
+  }
+}
@@ -26,12 +26,23 @@ package desi.juan.email;
 import static desi.juan.email.api.EmailConstants.TEXT;
 import static java.lang.Thread.currentThread;
 import static javax.mail.Message.RecipientType.TO;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static javax.mail.Part.ATTACHMENT;
 
 import com.icegreen.greenmail.util.ServerSetup;
 
 import java.io.IOException;
 import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.activation.DataHandler;
@@ -106,4 +117,66 @@ public class EmailTestUtils {
     serverSetup.setServerStartupTimeout(SERVER_STARTUP_TIMEOUT);
     return serverSetup;
   }
+
+  /**
+   * Parses the tags of the DKIM-Signature header of a written message.
+   */
+  public static Map<String, String> dkimTags(byte[] message) {
+    String dkimField = dkimField(headerFields(message));
+    Map<String, String> tags = new HashMap<>();
+    for (String tag : dkimField.substring(dkimField.indexOf(':') + 1).split(";")) {
+      String[] pair = tag.replaceAll("\\s", "").split("=", 2);
+      tags.put(pair[0], pair[1]);
+    }
+    return tags;
+  }
+
+  /**
+   * Verifies the relaxed/relaxed DKIM signature of a message with the public key of the signer, from the bytes the message
+   * was written or delivered with.
+   *
+   * @return true if both the body hash and the signature of the headers match.
+   */
+  public static boolean verifyDkimSignature(byte[] message, PublicKey key) throws GeneralSecurityException {
+    String written = new String(message, ISO_8859_1);
+    List<String> fields = headerFields(message);
+    String dkimField = dkimField(fields);
+    Map<String, String> tags = dkimTags(message);
+
+    String canonicalBody = written.substring(written.indexOf("\r\n\r\n") + 4)
+                                  .replaceAll("[ \t]+\r\n", "\r\n")
+                                  .replaceAll("[ \t]+", " ")
+                                  .replaceAll("(\r\n)+$", "");
+    if (!canonicalBody.isEmpty()) {
+      canonicalBody += "\r\n";
+    }
+    byte[] bodyHash = MessageDigest.getInstance("SHA-256").digest(canonicalBody.getBytes(ISO_8859_1));
+    if (!tags.get("bh").equals(Base64.getEncoder().encodeToString(bodyHash))) {
+      return false;
+    }
+
+    Signature verifier = Signature.getInstance("SHA256withRSA");
+    verifier.initVerify(key);
+    for (String name : tags.get("h").split(":")) {
+      String field = fields.stream().filter(f -> f.toLowerCase().startsWith(name.toLowerCase() + ":")).findFirst().get();
+      verifier.update(relaxed(field).concat("\r\n").getBytes(US_ASCII));
+    }
+    verifier.update(relaxed(dkimField.replaceAll("b=[^;]*$", "b=")).getBytes(US_ASCII));
+    return verifier.verify(Base64.getDecoder().decode(tags.get("b")));
+  }
+
+  private static List<String> headerFields(byte[] message) {
+    String written = new String(message, ISO_8859_1);
+    return Arrays.asList(written.substring(0, written.indexOf("\r\n\r\n")).split("\r\n(?![ \t])"));
+  }
+
+  private static String dkimField(List<String> fields) {
+    return fields.stream().filter(field -> field.startsWith("DKIM-Signature:")).findFirst().get();
+  }
+
+  private static String relaxed(String field) {
+    int colon = field.indexOf(':');
+    return field.substring(0, colon).trim().toLowerCase() + ":"
+           + field.substring(colon + 1).replaceAll("\r\n", "").replaceAll("[ \t]+", " ").trim();
+  }
 }
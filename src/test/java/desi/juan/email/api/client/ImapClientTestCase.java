@@ -24,23 +24,54 @@
 package desi.juan.email.api.client;
 
 import static desi.juan.email.EmailTestUtils.GOKU_EMAIL;
+import static desi.juan.email.EmailTestUtils.VEGETA_EMAIL;
 import static desi.juan.email.EmailTestUtils.getSinglePartTestMessage;
 import static desi.juan.email.api.EmailConstants.INBOX_FOLDER;
+import static desi.juan.email.api.PageOrder.NEWEST_FIRST;
+import static desi.juan.email.api.PageOrder.OLDEST_FIRST;
+import static java.lang.String.format;
+import static java.net.URLEncoder.encode;
+import static java.util.Collections.emptyMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static junit.framework.TestCase.fail;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import javax.mail.Flags.Flag;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 
 import desi.juan.email.Email4JTestCase;
 import desi.juan.email.api.Email;
+import desi.juan.email.api.EmailPage;
+import desi.juan.email.api.Flow;
 import desi.juan.email.api.client.configuration.ClientConfiguration;
+import desi.juan.email.api.sync.InMemorySyncStateStore;
+import desi.juan.email.api.sync.SyncResult;
+import desi.juan.email.api.sync.SyncState;
+import desi.juan.email.api.sync.SyncStateStore;
 import desi.juan.email.internal.EmailProtocol;
 import desi.juan.email.internal.StoredEmail;
+import desi.juan.email.internal.exception.EmailConnectionException;
+import desi.juan.email.internal.exception.RetrieveEmailException;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -72,6 +103,310 @@ public class ImapClientTestCase extends Email4JTestCase {
     });
   }
 
+  @Test
+  public void receiveAfterBackgroundConnect() throws Exception {
+    ImapClient backgroundClient = new ImapClient(GOKU_EMAIL, PASSWORD, HOST, PORT,
+                                                 new ClientConfiguration(10000, emptyMap(), 10000, null, 10000, true));
+    try {
+      backgroundClient.ready().get(10, SECONDS);
+      assertThat(backgroundClient.retrieve(INBOX_FOLDER, false).size(), is(10));
+    } finally {
+      backgroundClient.disconnect();
+    }
+  }
+
+  @Test
+  public void backgroundConnectFailureIsReported() throws Exception {
+    ImapClient backgroundClient = new ImapClient(GOKU_EMAIL, PASSWORD, HOST, PORT + 1,
+                                                 new ClientConfiguration(10000, emptyMap(), 10000, null, 10000, true));
+    try {
+      backgroundClient.ready().get(10, SECONDS);
+      fail("the client should not have connected");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), is(instanceOf(EmailConnectionException.class)));
+    }
+    expectedException.expect(EmailConnectionException.class);
+    backgroundClient.retrieve(INBOX_FOLDER, false);
+  }
+
+  @Test
+  public void retrieveLazily() throws Exception {
+    List<Email> emails = client.retrieveLazily(INBOX_FOLDER);
+    assertThat(emails.size(), is(10));
+    emails.forEach(this::assertSubject);
+    assertThat(server.getReceivedMessages()[0].getFlags().contains(Flag.SEEN), is(false));
+
+    Email email = emails.get(0);
+    assertBodyContent(email);
+    assertThat(email.getBody(), is(sameInstance(email.getBody())));
+    assertThat(server.getReceivedMessages()[0].getFlags().contains(Flag.SEEN), is(true));
+    assertThat(server.getReceivedMessages()[1].getFlags().contains(Flag.SEEN), is(false));
+  }
+
+  @Test
+  public void lazyContentFailsOnceTheFolderIsClosed() {
+    List<Email> emails = client.retrieveLazily(INBOX_FOLDER);
+    client.disconnect();
+    expectedException.expect(RetrieveEmailException.class);
+    expectedException.expectMessage("is closed");
+    emails.get(0).getBody();
+  }
+
+  @Test
+  public void syncRetrievesOnlyNewEmails() throws Exception {
+    SyncStateStore store = new InMemorySyncStateStore();
+    SyncResult first = client.sync(INBOX_FOLDER, false, store);
+    assertThat(first.isFullSync(), is(true));
+    assertThat(first.getEmails().size(), is(10));
+    assertThat(store.load(first.getKey()).isPresent(), is(false));
+    first.commit();
+    assertThat(store.load(first.getKey()).get(), is(first.getState()));
+
+    SyncResult empty = client.sync(INBOX_FOLDER, false, store);
+    assertThat(empty.isFullSync(), is(false));
+    assertThat(empty.getEmails().size(), is(0));
+    assertThat(empty.getState(), is(first.getState()));
+
+    for (int i = 0; i < 3; i++) {
+      user.deliver((MimeMessage) getSinglePartTestMessage());
+    }
+    SyncResult incremental = client.sync(INBOX_FOLDER, true, store);
+    assertThat(incremental.isFullSync(), is(false));
+    assertThat(incremental.getEmails().size(), is(3));
+    incremental.getEmails().forEach(this::assertBodyContent);
+    assertThat(incremental.getEmails().get(0).getId(), is(first.getState().getLastUid() + 1));
+  }
+
+  @Test
+  public void uncommittedSyncRetrievesTheSameEmailsAgain() throws Exception {
+    SyncStateStore store = new InMemorySyncStateStore();
+    client.sync(INBOX_FOLDER, false, store).commit();
+    for (int i = 0; i < 2; i++) {
+      user.deliver((MimeMessage) getSinglePartTestMessage());
+    }
+    SyncResult unprocessed = client.sync(INBOX_FOLDER, false, store);
+    assertThat(unprocessed.getEmails().size(), is(2));
+
+    SyncResult retried = client.sync(INBOX_FOLDER, false, store);
+    assertThat(retried.getEmails().size(), is(2));
+    assertThat(retried.getState(), is(unprocessed.getState()));
+    retried.commit();
+    assertThat(client.sync(INBOX_FOLDER, false, store).getEmails().size(), is(0));
+  }
+
+  @Test
+  public void syncStatesOfDifferentAccountsDoNotCollide() throws Exception {
+    server.setUser(VEGETA_EMAIL, VEGETA_EMAIL, PASSWORD);
+    ImapClient otherClient = new ImapClient(VEGETA_EMAIL, PASSWORD, HOST, PORT, new ClientConfiguration());
+    try {
+      SyncStateStore store = new InMemorySyncStateStore();
+      SyncResult goku = client.sync(INBOX_FOLDER, false, store);
+      goku.commit();
+      assertThat(goku.getKey(), is(format("imap://%s@%s:%d/%s", encode(GOKU_EMAIL, "UTF-8"), HOST, PORT, INBOX_FOLDER)));
+
+      SyncResult vegeta = otherClient.sync(INBOX_FOLDER, false, store);
+      assertThat(vegeta.getKey(), is(not(goku.getKey())));
+      assertThat(vegeta.isFullSync(), is(true));
+      assertThat(vegeta.getEmails().size(), is(0));
+      vegeta.commit();
+      assertThat(store.load(goku.getKey()).get(), is(goku.getState()));
+    } finally {
+      otherClient.disconnect();
+    }
+  }
+
+  @Test
+  public void syncStartsOverWhenUidValidityChanges() {
+    SyncStateStore store = new InMemorySyncStateStore();
+    SyncResult first = client.sync(INBOX_FOLDER, false, store);
+    SyncState state = first.getState();
+    store.save(first.getKey(), new SyncState(state.getUidValidity() + 1, state.getLastUid()));
+
+    SyncResult result = client.sync(INBOX_FOLDER, false, store);
+    assertThat(result.isFullSync(), is(true));
+    assertThat(result.getEmails().size(), is(10));
+    assertThat(result.getState(), is(state));
+  }
+
+  @Test
+  public void retrievePagesNewestFirst() {
+    List<Long> ids = client.retrieve(INBOX_FOLDER, false).stream().map(Email::getId).collect(toList());
+    Collections.reverse(ids);
+
+    EmailPage first = client.retrievePage(INBOX_FOLDER, false, 4, NEWEST_FIRST);
+    assertThat(ids(first), is(ids.subList(0, 4)));
+    assertThat(first.hasMore(), is(true));
+
+    // the last email of the page is gone, the next page must start right after it anyway.
+    client.deleteById(INBOX_FOLDER, ids.get(3));
+    EmailPage second = client.retrievePage(INBOX_FOLDER, false, first.getContinuationToken(), 4);
+    assertThat(ids(second), is(ids.subList(4, 8)));
+    assertThat(second.hasMore(), is(true));
+
+    EmailPage last = client.retrievePage(INBOX_FOLDER, false, second.getContinuationToken(), 4);
+    assertThat(ids(last), is(ids.subList(8, 10)));
+    assertThat(last.hasMore(), is(false));
+  }
+
+  @Test
+  public void retrievePageOldestFirstAfterUid() {
+    List<Long> ids = client.retrieve(INBOX_FOLDER, false).stream().map(Email::getId).collect(toList());
+
+    EmailPage page = client.retrievePage(INBOX_FOLDER, true, ids.get(2), 5, OLDEST_FIRST);
+    assertThat(ids(page), is(ids.subList(3, 8)));
+    page.getEmails().forEach(this::assertBodyContent);
+
+    EmailPage next = client.retrievePage(INBOX_FOLDER, false, page.getContinuationToken(), 5);
+    assertThat(ids(next), is(ids.subList(8, 10)));
+    assertThat(next.hasMore(), is(false));
+  }
+
+  @Test
+  public void invalidContinuationToken() {
+    expectedException.expect(IllegalArgumentException.class);
+    client.retrievePage(INBOX_FOLDER, false, "not-a-token", 5);
+  }
+
+  private List<Long> ids(EmailPage page) {
+    return page.getEmails().stream().map(Email::getId).collect(toList());
+  }
+
+  @Test
+  public void streamFetchesInWindows() {
+    try (Stream<Email> emails = client.stream(INBOX_FOLDER, true, 3)) {
+      List<Email> consumed = emails.peek(this::assertBodyContent).collect(toList());
+      List<Integer> numbers = IntStream.rangeClosed(1, 10).boxed().collect(toList());
+      assertThat(consumed.stream().map(Email::getNumber).collect(toList()), is(numbers));
+    }
+  }
+
+  @Test
+  public void streamStopsWhenClosed() {
+    Stream<Email> emails = client.stream(INBOX_FOLDER, false, 4);
+    Iterator<Email> iterator = emails.iterator();
+    assertThat(iterator.next().getNumber(), is(1));
+    emails.close();
+    assertThat(iterator.hasNext(), is(false));
+  }
+
+  @Test
+  public void publisherFetchesOnDemand() throws Exception {
+    BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+    AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+    client.publisher(INBOX_FOLDER, false, 4).subscribe(new Flow.Subscriber<Email>() {
+
+      @Override
+      public void onSubscribe(Flow.Subscription s) {
+        subscription.set(s);
+        s.request(3);
+      }
+
+      @Override
+      public void onNext(Email email) {
+        signals.add(email);
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        signals.add(throwable);
+      }
+
+      @Override
+      public void onComplete() {
+        signals.add("complete");
+      }
+    });
+
+    for (int i = 0; i < 3; i++) {
+      assertThat(signals.poll(10, SECONDS), is(instanceOf(Email.class)));
+    }
+    assertThat(signals.poll(200, MILLISECONDS), is(nullValue()));
+
+    subscription.get().request(Long.MAX_VALUE);
+    for (int i = 0; i < 7; i++) {
+      assertThat(signals.poll(10, SECONDS), is(instanceOf(Email.class)));
+    }
+    assertThat(signals.poll(10, SECONDS), is("complete"));
+  }
+
+  @Test
+  public void publisherCompletesOnceTheLastBatchIsSignaled() throws Exception {
+    BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+    client.publisher(INBOX_FOLDER, false, 5).subscribe(new Flow.Subscriber<Email>() {
+
+      @Override
+      public void onSubscribe(Flow.Subscription s) {
+        s.request(10);
+      }
+
+      @Override
+      public void onNext(Email email) {
+        signals.add(email);
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        signals.add(throwable);
+      }
+
+      @Override
+      public void onComplete() {
+        signals.add("complete");
+      }
+    });
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(signals.poll(10, SECONDS), is(instanceOf(Email.class)));
+    }
+    // no more emails were requested, the server already reported there are no more of them.
+    assertThat(signals.poll(10, SECONDS), is("complete"));
+  }
+
+  @Test
+  public void publisherContinuesAfterExpungedEmails() throws Exception {
+    List<Long> ids = client.retrieve(INBOX_FOLDER, false).stream().map(Email::getId).collect(toList());
+    BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+    AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+    client.publisher(INBOX_FOLDER, false, 3).subscribe(new Flow.Subscriber<Email>() {
+
+      @Override
+      public void onSubscribe(Flow.Subscription s) {
+        subscription.set(s);
+        s.request(3);
+      }
+
+      @Override
+      public void onNext(Email email) {
+        signals.add(email.getId());
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        signals.add(throwable);
+      }
+
+      @Override
+      public void onComplete() {
+        signals.add("complete");
+      }
+    });
+
+    List<Object> received = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      received.add(signals.poll(10, SECONDS));
+    }
+    // the emails already published are gone, the ones that follow them shift to lower message numbers.
+    for (int i = 0; i < 3; i++) {
+      client.deleteById(INBOX_FOLDER, ids.get(i));
+    }
+    subscription.get().request(Long.MAX_VALUE);
+    for (Object signal = signals.poll(10, SECONDS); !"complete".equals(signal); signal = signals.poll(10, SECONDS)) {
+      assertThat(signal, is(instanceOf(Long.class)));
+      received.add(signal);
+    }
+    assertThat(received, is(new ArrayList<Object>(ids)));
+  }
+
   @Override
   public String getProtocol() {
     return EmailProtocol.IMAP.getName();
@@ -29,36 +29,91 @@ import static desi.juan.email.EmailTestUtils.GOHAN_EMAIL;
 import static desi.juan.email.EmailTestUtils.GOKU_EMAIL;
 import static desi.juan.email.EmailTestUtils.HEADER_KEY;
 import static desi.juan.email.EmailTestUtils.HEADER_VAL;
+import static desi.juan.email.EmailTestUtils.TEXT_PLAIN_ATTACHMENT_CONTENT;
+import static desi.juan.email.EmailTestUtils.TEXT_PLAIN_ATTACHMENT_NAME;
 import static desi.juan.email.EmailTestUtils.TRUNKS_EMAIL;
 import static desi.juan.email.EmailTestUtils.VEGETA_EMAIL;
+import static desi.juan.email.EmailTestUtils.dkimTags;
+import static desi.juan.email.EmailTestUtils.verifyDkimSignature;
 import static desi.juan.email.api.EmailBuilder.newEmail;
+import static desi.juan.email.api.EmailConstants.TEXT_PLAIN;
+import static desi.juan.email.api.EmailTemplateBuilder.newTemplate;
+import static desi.juan.email.api.client.configuration.SmtpConfigurationBuilder.newSmtpConfiguration;
+import static desi.juan.email.api.security.DkimConfigurationBuilder.newDkimConfiguration;
 import static java.util.Arrays.asList;
 import static java.util.Arrays.stream;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.toList;
 import static javax.mail.Message.RecipientType.CC;
 import static javax.mail.Message.RecipientType.TO;
 import static junit.framework.TestCase.fail;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.mail.Address;
+import javax.mail.BodyPart;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
 
+import com.google.common.collect.ImmutableMap;
 import desi.juan.email.Email4JTestCase;
 import desi.juan.email.api.Email;
+import desi.juan.email.api.EmailAttachment;
+import desi.juan.email.api.EmailSubscriber;
+import desi.juan.email.api.EmailTemplate;
+import desi.juan.email.api.Flow;
+import desi.juan.email.api.SendResult;
 import desi.juan.email.api.client.configuration.ClientConfiguration;
 import desi.juan.email.internal.EmailProtocol;
+import desi.juan.email.internal.exception.EmailConnectionException;
+import desi.juan.email.internal.exception.SendTimeoutException;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class SmtpClientTestCase extends Email4JTestCase {
 
+  private static final String OCTET_STREAM = "application/octet-stream";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   private SmtpClient client;
 
   @Before
@@ -66,6 +121,11 @@ public class SmtpClientTestCase extends Email4JTestCase {
     client = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, PORT, new ClientConfiguration());
   }
 
+  @After
+  public void disconnectClient() {
+    client.disconnect();
+  }
+
   @Test
   public void sendSimple() throws IOException, MessagingException {
     Email email = buildSimpleEmail();
@@ -99,6 +159,441 @@ public class SmtpClientTestCase extends Email4JTestCase {
 
   }
 
+  @Test
+  public void sendRecyclingPooledConnections() throws IOException, MessagingException {
+    SmtpClient pooledClient = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, PORT, new ClientConfiguration(),
+                                             newSmtpConfiguration()
+                                               .withMaxConnections(1)
+                                               .withMaxMessagesPerConnection(2)
+                                               .build());
+    Email email = buildSimpleEmail();
+    try {
+      for (int i = 0; i < 5; i++) {
+        pooledClient.send(email);
+      }
+    } finally {
+      pooledClient.disconnect();
+    }
+    assertThat(getReceivedMessages(), hasSize(15));
+  }
+
+  @Test
+  public void sendThrottledToMaxRate() throws Exception {
+    SmtpClient throttledClient = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, PORT, new ClientConfiguration(),
+                                                newSmtpConfiguration()
+                                                  .withMaxMessagesPerSecond(20)
+                                                  .withMaxRecipientsPerSecond(60)
+                                                  .build());
+    long start = System.nanoTime();
+    try {
+      throttledClient.sendAll(asList(buildSimpleEmail(), buildSimpleEmail(), buildSimpleEmail(), buildSimpleEmail(),
+                                     buildSimpleEmail(), buildSimpleEmail(), buildSimpleEmail()));
+    } finally {
+      throttledClient.disconnect();
+    }
+    // the first send goes right away, the other 6 sends carry 18 recipients that take 300ms at 60 recipients per second.
+    assertThat(NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(250L));
+    assertThat(getReceivedMessages(), hasSize(21));
+  }
+
+  @Test
+  public void sendAllReportsEachResult() throws IOException, MessagingException {
+    Email invalid = newEmail()
+      .to("goku@@dbz.com")
+      .withBody(EMAIL_CONTENT)
+      .from(GOKU_EMAIL)
+      .build();
+    List<SendResult> results = client.sendAll(asList(buildSimpleEmail(), invalid, buildSimpleEmail()));
+    assertThat(results, hasSize(3));
+    assertThat(results.get(0).isSuccess(), is(true));
+    assertThat(results.get(1).isSuccess(), is(false));
+    assertThat(results.get(1).getError().isPresent(), is(true));
+    assertThat(results.get(2).isSuccess(), is(true));
+    assertThat(getReceivedMessages(), hasSize(6));
+  }
+
+  @Test
+  public void sendAsync() throws Exception {
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      futures.add(client.sendAsync(buildSimpleEmail(), 10, SECONDS));
+    }
+    allOf(futures.toArray(new CompletableFuture[futures.size()])).get(10, SECONDS);
+    assertThat(getReceivedMessages(), hasSize(30));
+  }
+
+  @Test
+  public void sendAsyncWithProvidedExecutor() throws Exception {
+    ExecutorService executor = newCachedThreadPool();
+    SmtpClient executorClient = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, PORT, new ClientConfiguration(),
+                                               newSmtpConfiguration().withExecutor(executor).build());
+    try {
+      executorClient.sendAsync(buildSimpleEmail()).get(10, SECONDS);
+    } finally {
+      executorClient.disconnect();
+    }
+    assertThat(executor.isShutdown(), is(false));
+    executor.shutdown();
+    assertThat(getReceivedMessages(), hasSize(3));
+  }
+
+  @Test
+  public void timedOutSendThatWasNotPickedIsDiscarded() throws Exception {
+    ExecutorService executor = newSingleThreadExecutor();
+    CountDownLatch busy = new CountDownLatch(1);
+    executor.submit(() -> {
+      busy.await();
+      return null;
+    });
+    SmtpClient busyClient = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, PORT, new ClientConfiguration(),
+                                           newSmtpConfiguration().withExecutor(executor).build());
+    try {
+      busyClient.sendAsync(buildSimpleEmail(), 200, MILLISECONDS).get(10, SECONDS);
+      fail("the send should have timed out");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), is(instanceOf(SendTimeoutException.class)));
+      assertThat(((SendTimeoutException) e.getCause()).mayBeDelivered(), is(false));
+    } finally {
+      busy.countDown();
+      executor.shutdown();
+      executor.awaitTermination(10, SECONDS);
+      busyClient.disconnect();
+    }
+    assertThat(getReceivedMessages(), hasSize(0));
+  }
+
+  @Test
+  public void timedOutSendInProgressMayBeDelivered() throws Exception {
+    // accepts connections but never greets, the send hangs waiting for the server.
+    try (ServerSocket silent = new ServerSocket(0)) {
+      SmtpClient silentClient = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, silent.getLocalPort(), new ClientConfiguration());
+      try {
+        silentClient.sendAsync(buildSimpleEmail(), 200, MILLISECONDS).get(10, SECONDS);
+        fail("the send should have timed out");
+      } catch (ExecutionException e) {
+        assertThat(e.getCause(), is(instanceOf(SendTimeoutException.class)));
+        assertThat(((SendTimeoutException) e.getCause()).mayBeDelivered(), is(true));
+        assertThat(e.getCause().getMessage(), containsString("may still be delivered"));
+      } finally {
+        silentClient.disconnect();
+      }
+    }
+  }
+
+  @Test
+  public void sendTemplate() throws Exception {
+    EmailTemplate template = newTemplate()
+      .to("${email}")
+      .withSubject("Hi ${name}")
+      .withBody("${name}, " + EMAIL_CONTENT)
+      .withHeader(HEADER_KEY, "${name}")
+      .withAttachment(new EmailAttachment(TEXT_PLAIN_ATTACHMENT_NAME, TEXT_PLAIN_ATTACHMENT_CONTENT, TEXT_PLAIN))
+      .from(GOKU_EMAIL)
+      .build();
+
+    List<SendResult> results = client.sendAll(template, asList(ImmutableMap.of("email", GOHAN_EMAIL, "name", "Gohan"),
+                                                               ImmutableMap.of("email", VEGETA_EMAIL, "name", "Vegeta")));
+    assertThat(results, hasSize(2));
+    assertThat(results.get(0).isSuccess(), is(true));
+    assertThat(results.get(1).isSuccess(), is(true));
+
+    List<MimeMessage> messages = getReceivedMessages();
+    assertThat(messages, hasSize(2));
+    for (MimeMessage message : messages) {
+      String name = message.getRecipients(TO)[0].toString().equals(GOHAN_EMAIL) ? "Gohan" : "Vegeta";
+      assertThat(message.getSubject(), is("Hi " + name));
+      assertThat(message.getHeader(HEADER_KEY)[0], is(name));
+      MimeMultipart multipart = (MimeMultipart) message.getContent();
+      assertThat(multipart.getBodyPart(0).getContent().toString().trim(), is(name + ", " + EMAIL_CONTENT));
+      BodyPart attachment = multipart.getBodyPart(1);
+      assertThat(attachment.getFileName(), is(TEXT_PLAIN_ATTACHMENT_NAME));
+      assertThat(IOUtils.toString(attachment.getInputStream()), is(TEXT_PLAIN_ATTACHMENT_CONTENT));
+    }
+  }
+
+  @Test
+  public void sendStreamedAttachments() throws Exception {
+    byte[] content = new byte[512 * 1024];
+    new Random(42).nextBytes(content);
+    Path file = folder.newFile("dbz.bin").toPath();
+    Files.write(file, content);
+
+    Email email = newEmail()
+      .to(GOHAN_EMAIL)
+      .withBody(EMAIL_CONTENT)
+      .withAttachment(EmailAttachment.fromPath(file, OCTET_STREAM))
+      .withAttachment(EmailAttachment.fromStream(TEXT_PLAIN_ATTACHMENT_NAME,
+                                                 () -> new ByteArrayInputStream(TEXT_PLAIN_ATTACHMENT_CONTENT.getBytes()),
+                                                 TEXT_PLAIN))
+      .from(GOKU_EMAIL)
+      .build();
+    client.send(email);
+
+    List<MimeMessage> messages = getReceivedMessages();
+    assertThat(messages, hasSize(1));
+    MimeMultipart multipart = (MimeMultipart) messages.get(0).getContent();
+    assertThat(multipart.getBodyPart(1).getFileName(), is("dbz.bin"));
+    assertThat(IOUtils.toByteArray(multipart.getBodyPart(1).getInputStream()), is(content));
+    assertThat(multipart.getBodyPart(2).getFileName(), is(TEXT_PLAIN_ATTACHMENT_NAME));
+    assertThat(IOUtils.toString(multipart.getBodyPart(2).getInputStream()), is(TEXT_PLAIN_ATTACHMENT_CONTENT));
+  }
+
+  @Test
+  public void enqueueDeliversInBackground() throws Exception {
+    BlockingQueue<SendResult> results = new LinkedBlockingQueue<>();
+    SmtpClient spoolClient = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, PORT, new ClientConfiguration(),
+                                            newSmtpConfiguration()
+                                              .withSpoolDirectory(folder.newFolder("spool").toPath())
+                                              .withSpoolListener(results::add)
+                                              .build());
+    try {
+      spoolClient.enqueue(buildSimpleEmail());
+      SendResult result = results.poll(10, SECONDS);
+      assertThat(result.isSuccess(), is(true));
+    } finally {
+      spoolClient.disconnect();
+    }
+    assertThat(getReceivedMessages(), hasSize(3));
+  }
+
+  @Test
+  public void enqueuedEmailsSurviveRestarts() throws Exception {
+    Path spool = folder.newFolder("spool").toPath();
+    SmtpClient unreachableClient = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, PORT + 1, new ClientConfiguration(),
+                                                  newSmtpConfiguration()
+                                                    .withSpoolDirectory(spool)
+                                                    .withSpoolRetryDelay(500)
+                                                    .withSpoolMaxRetryDelay(500)
+                                                    .build());
+    unreachableClient.enqueue(buildSimpleEmail());
+    unreachableClient.disconnect();
+    assertThat(getReceivedMessages(), hasSize(0));
+
+    BlockingQueue<SendResult> results = new LinkedBlockingQueue<>();
+    SmtpClient spoolClient = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, PORT, new ClientConfiguration(),
+                                            newSmtpConfiguration()
+                                              .withSpoolDirectory(spool)
+                                              .withSpoolListener(results::add)
+                                              .build());
+    try {
+      SendResult result = results.poll(10, SECONDS);
+      assertThat(result.isSuccess(), is(true));
+    } finally {
+      spoolClient.disconnect();
+    }
+    assertThat(getReceivedMessages(), hasSize(3));
+  }
+
+  @Test
+  public void sendSplitsLargeRecipientLists() throws Exception {
+    SmtpClient chunkingClient = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, PORT, new ClientConfiguration(),
+                                               newSmtpConfiguration().withMaxRecipientsPerTransaction(10).build());
+    List<String> bcc = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      bcc.add("saiyan" + i + "@dragonball.com");
+    }
+    try {
+      chunkingClient.send(newEmail().to(GOHAN_EMAIL).bcc(bcc).withBody(EMAIL_CONTENT).from(GOKU_EMAIL).build());
+      List<SendResult> results = chunkingClient.sendAll(asList(newEmail().to(VEGETA_EMAIL).bcc(bcc)
+                                                                 .withBody(EMAIL_CONTENT).from(GOKU_EMAIL).build()));
+      assertThat(results.get(0).isSuccess(), is(true));
+    } finally {
+      chunkingClient.disconnect();
+    }
+    List<MimeMessage> messages = getReceivedMessages();
+    assertThat(messages, hasSize(52));
+    for (MimeMessage message : messages) {
+      assertThat(message.getHeader("Bcc"), is(nullValue()));
+    }
+  }
+
+  @Test
+  public void sendToEnvelopeIgnoresHeaderRecipients() throws Exception {
+    SmtpClient chunkingClient = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, PORT, new ClientConfiguration(),
+                                               newSmtpConfiguration().withMaxRecipientsPerTransaction(10).build());
+    List<String> envelope = new ArrayList<>();
+    for (int i = 0; i < 15; i++) {
+      envelope.add("saiyan" + i + "@dragonball.com");
+    }
+    try {
+      chunkingClient.sendToEnvelope(newEmail().to("announcements@dragonball.com").withBody(EMAIL_CONTENT)
+                                      .from(GOKU_EMAIL).build(),
+                                    envelope);
+    } finally {
+      chunkingClient.disconnect();
+    }
+    List<MimeMessage> messages = getReceivedMessages();
+    assertThat(messages, hasSize(15));
+    for (MimeMessage message : messages) {
+      assertRecipients(message.getRecipients(TO), "announcements@dragonball.com");
+    }
+  }
+
+  @Test
+  public void sendFailsOverToHealthyRelay() throws Exception {
+    SmtpClient relayedClient = new SmtpClient(GOKU_EMAIL, PASSWORD,
+                                              asList(new SmtpRelay(HOST, PORT + 1, 3), new SmtpRelay(HOST, PORT)),
+                                              new ClientConfiguration(),
+                                              newSmtpConfiguration().withRelayFailureThreshold(2).build());
+    try {
+      for (int i = 0; i < 6; i++) {
+        relayedClient.send(buildSimpleEmail());
+      }
+    } finally {
+      relayedClient.disconnect();
+    }
+    assertThat(getReceivedMessages(), hasSize(18));
+  }
+
+  @Test
+  public void sendAllFailsOverToHealthyRelay() throws Exception {
+    SmtpClient relayedClient = new SmtpClient(GOKU_EMAIL, PASSWORD,
+                                              asList(new SmtpRelay(HOST, PORT + 1, 3), new SmtpRelay(HOST, PORT)),
+                                              new ClientConfiguration(),
+                                              newSmtpConfiguration().withRelayFailureThreshold(2).build());
+    List<SendResult> results;
+    try {
+      results = relayedClient.sendAll(asList(buildSimpleEmail(), buildSimpleEmail(), buildSimpleEmail()));
+    } finally {
+      relayedClient.disconnect();
+    }
+    assertThat(results, hasSize(3));
+    results.forEach(result -> assertThat(result.isSuccess(), is(true)));
+    assertThat(getReceivedMessages(), hasSize(9));
+  }
+
+  @Test
+  public void sendDkimSigned() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(1024);
+    KeyPair keys = generator.generateKeyPair();
+    String privateKey = Base64.getEncoder().encodeToString(keys.getPrivate().getEncoded());
+    SmtpClient signingClient = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, PORT, new ClientConfiguration(),
+                                              newSmtpConfiguration()
+                                                .withDkim(newDkimConfiguration()
+                                                            .withDomain("dbz.com")
+                                                            .withSelector("capsule")
+                                                            .withPrivateKey(privateKey)
+                                                            .build())
+                                                .build());
+    try {
+      signingClient.send(buildSimpleEmail());
+    } finally {
+      signingClient.disconnect();
+    }
+    for (MimeMessage message : getReceivedMessages()) {
+      // the message as delivered by the server.
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      message.writeTo(out);
+      assertThat(dkimTags(out.toByteArray()).get("s"), is("capsule"));
+      assertThat(verifyDkimSignature(out.toByteArray(), keys.getPublic()), is(true));
+    }
+  }
+
+  @Test
+  public void warmUpOpensConnectionsAhead() throws Exception {
+    SmtpClient warmClient = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, PORT, new ClientConfiguration(),
+                                           newSmtpConfiguration().withWarmUpConnections(2).build());
+    try {
+      warmClient.ready().get(10, SECONDS);
+      warmClient.send(buildSimpleEmail());
+    } finally {
+      warmClient.disconnect();
+    }
+    assertThat(getReceivedMessages(), hasSize(3));
+
+    SmtpClient unreachableClient = new SmtpClient(GOKU_EMAIL, PASSWORD, HOST, PORT + 1, new ClientConfiguration(),
+                                                  newSmtpConfiguration().withWarmUpConnections(2).build());
+    try {
+      unreachableClient.ready().get(10, SECONDS);
+      fail("the warm up connections should have failed");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), is(instanceOf(EmailConnectionException.class)));
+    } finally {
+      unreachableClient.disconnect();
+    }
+  }
+
+  @Test
+  public void subscriberRequestsOnlyWhatItCanSend() throws Exception {
+    int total = 20;
+    AtomicInteger requested = new AtomicInteger();
+    AtomicInteger maxOutstanding = new AtomicInteger();
+    AtomicInteger sent = new AtomicInteger();
+    AtomicBoolean requesting = new AtomicBoolean();
+    AtomicBoolean overlapped = new AtomicBoolean();
+    BlockingQueue<SendResult> results = new LinkedBlockingQueue<>();
+    EmailSubscriber subscriber = client.subscriber(2, result -> {
+      sent.incrementAndGet();
+      results.add(result);
+    });
+    subscriber.onSubscribe(new Flow.Subscription() {
+
+      private int published;
+
+      @Override
+      public void request(long n) {
+        // the subscription must not be called concurrently, nor from within itself.
+        if (!requesting.compareAndSet(false, true)) {
+          overlapped.set(true);
+          return;
+        }
+        requested.addAndGet((int) n);
+        maxOutstanding.accumulateAndGet(requested.get() - sent.get(), Math::max);
+        for (long i = 0; i < n && published < total; i++, published++) {
+          subscriber.onNext(buildSimpleEmail());
+        }
+        if (published == total) {
+          subscriber.onComplete();
+        }
+        requesting.set(false);
+      }
+
+      @Override
+      public void cancel() {}
+    });
+
+    subscriber.completion().get(10, SECONDS);
+    assertThat(results, hasSize(total));
+    for (SendResult result : results) {
+      assertThat(result.isSuccess(), is(true));
+    }
+    assertThat(overlapped.get(), is(false));
+    assertThat(maxOutstanding.get(), is(2));
+    assertThat(getReceivedMessages(), hasSize(total * 3));
+  }
+
+  @Test
+  public void subscriberFailsWithTheUpstreamError() throws Exception {
+    BlockingQueue<SendResult> results = new LinkedBlockingQueue<>();
+    EmailSubscriber subscriber = client.subscriber(2, results::add);
+    subscriber.onSubscribe(new Flow.Subscription() {
+
+      @Override
+      public void request(long n) {}
+
+      @Override
+      public void cancel() {}
+    });
+    subscriber.onNext(buildSimpleEmail());
+    IllegalStateException error = new IllegalStateException("Upstream failed");
+    subscriber.onError(error);
+
+    try {
+      subscriber.completion().get(10, SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), is(error));
+    }
+    // the email being sent when the upstream failed is done.
+    assertThat(results.poll().isSuccess(), is(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void renderTemplateWithMissingValue() {
+    newTemplate().to("${email}").withBody("${name}").from(GOKU_EMAIL).build().render(ImmutableMap.of("email", GOHAN_EMAIL));
+  }
+
   @Override
   public String getProtocol() {
     return EmailProtocol.SMTP.getName();
@@ -0,0 +1,103 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal;
+
+import static desi.juan.email.EmailTestUtils.TEXT_PLAIN_ATTACHMENT_CONTENT;
+import static desi.juan.email.EmailTestUtils.TEXT_PLAIN_ATTACHMENT_NAME;
+import static desi.juan.email.EmailTestUtils.testSession;
+import static desi.juan.email.api.EmailConstants.TEXT_PLAIN;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.WeakReference;
+
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+import desi.juan.email.api.EmailAttachment;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class AttachmentCacheTestCase {
+
+  private static final String OCTET_STREAM = "application/octet-stream";
+
+  @Test
+  public void sameAttachmentIsEncodedOnce() throws Exception {
+    AttachmentCache cache = new AttachmentCache(1024);
+    EmailAttachment attachment = new EmailAttachment(TEXT_PLAIN_ATTACHMENT_NAME, TEXT_PLAIN_ATTACHMENT_CONTENT, TEXT_PLAIN);
+    EncodedAttachment encoded = cache.get(attachment).get();
+    assertThat(cache.get(attachment).get(), is(sameInstance(encoded)));
+
+    MimeMessage message = new MimeMessage(testSession);
+    message.setContent(new MimeMultipart(encoded.toBodyPart()));
+    message.saveChanges();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    message.writeTo(out);
+
+    MimeMessage received = new MimeMessage(testSession, new ByteArrayInputStream(out.toByteArray()));
+    MimeBodyPart part = (MimeBodyPart) ((MimeMultipart) received.getContent()).getBodyPart(0);
+    assertThat(part.getEncoding(), is("base64"));
+    assertThat(part.getFileName(), is(TEXT_PLAIN_ATTACHMENT_NAME));
+    assertThat(IOUtils.toString(part.getInputStream()), is(TEXT_PLAIN_ATTACHMENT_CONTENT));
+  }
+
+  @Test
+  public void equalAttachmentsAreDifferentEntries() {
+    AttachmentCache cache = new AttachmentCache(1024);
+    EmailAttachment attachment = new EmailAttachment(TEXT_PLAIN_ATTACHMENT_NAME, TEXT_PLAIN_ATTACHMENT_CONTENT, TEXT_PLAIN);
+    EmailAttachment copy = new EmailAttachment(TEXT_PLAIN_ATTACHMENT_NAME, TEXT_PLAIN_ATTACHMENT_CONTENT, TEXT_PLAIN);
+    assertThat(cache.get(copy).get(), is(not(sameInstance(cache.get(attachment).get()))));
+  }
+
+  @Test
+  public void uncacheableAttachments() {
+    AttachmentCache cache = new AttachmentCache(1024);
+    assertThat(cache.get(new EmailAttachment("big", new byte[2048], OCTET_STREAM)).isPresent(), is(false));
+    assertThat(cache.get(new EmailAttachment("stream", new ByteArrayInputStream(new byte[8]), OCTET_STREAM)).isPresent(),
+               is(false));
+    assertThat(new AttachmentCache(0).get(new EmailAttachment("small", new byte[8], OCTET_STREAM)).isPresent(), is(false));
+  }
+
+  @Test
+  public void unreferencedAttachmentsAreCollected() throws Exception {
+    AttachmentCache cache = new AttachmentCache(1024);
+    EmailAttachment attachment = new EmailAttachment(TEXT_PLAIN_ATTACHMENT_NAME, TEXT_PLAIN_ATTACHMENT_CONTENT, TEXT_PLAIN);
+    assertThat(cache.get(attachment).isPresent(), is(true));
+    WeakReference<EmailAttachment> reference = new WeakReference<>(attachment);
+    attachment = null;
+    for (int i = 0; i < 100 && reference.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    // the encoded attachment kept by the cache does not hold it's attachment.
+    assertThat(reference.get(), is(nullValue()));
+  }
+}
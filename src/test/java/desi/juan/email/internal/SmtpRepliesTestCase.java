@@ -0,0 +1,69 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.net.SocketTimeoutException;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import org.junit.Test;
+
+public class SmtpRepliesTestCase {
+
+  private static final String GOHAN = "gohan@dragonball.com";
+  private static final String VEGETA = "vegeta@dragonball.com";
+
+  @Test
+  public void recipientRejectionIsNotCongestion() throws Exception {
+    InternetAddress greylisted = new InternetAddress(VEGETA);
+    SMTPAddressFailedException rejection = new SMTPAddressFailedException(greylisted, "RCPT TO:<" + VEGETA + ">", 450,
+                                                                          "greylisted");
+    SMTPSendFailedException partial = new SMTPSendFailedException(".", 250, "OK", rejection,
+                                                                  new Address[] {new InternetAddress(GOHAN)},
+                                                                  new Address[0],
+                                                                  new Address[] {greylisted});
+    assertThat(SmtpReplies.isCongestion(partial), is(false));
+  }
+
+  @Test
+  public void transactionRejectionIsCongestion() {
+    SMTPSendFailedException data = new SMTPSendFailedException("DATA", 451, "try later", null, null, null, null);
+    assertThat(SmtpReplies.isCongestion(data), is(true));
+  }
+
+  @Test
+  public void closingTheSessionIsCongestion() throws Exception {
+    InternetAddress address = new InternetAddress(GOHAN);
+    assertThat(SmtpReplies.isCongestion(new SMTPAddressFailedException(address, "RCPT TO:<" + GOHAN + ">", 421, "bye")),
+               is(true));
+    assertThat(SmtpReplies.isCongestion(new MessagingException("timeout", new SocketTimeoutException())), is(true));
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.commands;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import javax.mail.Address;
+import javax.mail.internet.InternetAddress;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import desi.juan.email.internal.exception.EmailConnectionException;
+import desi.juan.email.internal.exception.SendEmailException;
+import org.junit.Test;
+
+public class DeliveryTestCase {
+
+  private static final String GOHAN = "gohan@dragonball.com";
+  private static final String VEGETA = "vegeta@dragonball.com";
+  private static final String TRUNKS = "trunks@dragonball.com";
+  private static final String GOTEN = "goten@dragonball.com";
+
+  @Test
+  public void partialFailureIsClassifiedByRecipient() throws Exception {
+    InternetAddress full = new InternetAddress(VEGETA);
+    InternetAddress unknown = new InternetAddress(TRUNKS);
+    SMTPAddressFailedException mailboxFull = new SMTPAddressFailedException(full, "RCPT TO:<" + VEGETA + ">", 452, "full");
+    SMTPAddressFailedException noSuchUser = new SMTPAddressFailedException(unknown, "RCPT TO:<" + TRUNKS + ">", 550, "unknown");
+    mailboxFull.setNextException(noSuchUser);
+    SMTPSendFailedException partial = new SMTPSendFailedException(".", 250, "OK", mailboxFull,
+                                                                  new Address[] {new InternetAddress(GOHAN)},
+                                                                  new Address[0],
+                                                                  new Address[] {full, unknown});
+
+    Delivery delivery = new Delivery();
+    delivery.failed(new Address[] {new InternetAddress(GOHAN), full, unknown}, partial);
+    delivery.accepted(new Address[] {new InternetAddress(GOTEN)});
+
+    assertThat(delivery.isSuccess(), is(false));
+    SendEmailException error = delivery.toException();
+    assertThat(error.getAcceptedRecipients(), contains(GOHAN, GOTEN));
+    assertThat(error.getPermanentlyRejectedRecipients(), contains(TRUNKS));
+    assertThat(error.getTemporarilyRejectedRecipients(), contains(VEGETA));
+    // a partially sent email must not look retryable as a whole.
+    assertThat(error.getCause(), is(nullValue()));
+  }
+
+  @Test
+  public void failedTransactionSharesItsFateWithAllRecipients() throws Exception {
+    EmailConnectionException refused = new EmailConnectionException("refused");
+    Delivery delivery = new Delivery();
+    delivery.failed(new Address[] {new InternetAddress(GOHAN), new InternetAddress(VEGETA)}, refused);
+
+    SendEmailException error = delivery.toException();
+    assertThat(error.getAcceptedRecipients(), is(empty()));
+    assertThat(error.getPermanentlyRejectedRecipients(), is(empty()));
+    assertThat(error.getTemporarilyRejectedRecipients(), contains(GOHAN, VEGETA));
+    assertThat(error.getCause(), is(refused));
+  }
+}
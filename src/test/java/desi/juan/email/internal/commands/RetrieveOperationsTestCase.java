@@ -0,0 +1,95 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.commands;
+
+import static desi.juan.email.EmailTestUtils.GOKU_EMAIL;
+import static desi.juan.email.EmailTestUtils.getSinglePartTestMessage;
+import static desi.juan.email.api.EmailConstants.INBOX_FOLDER;
+import static java.util.regex.Pattern.MULTILINE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.mail.Folder;
+import javax.mail.Session;
+import javax.mail.Store;
+import javax.mail.internet.MimeMessage;
+
+import desi.juan.email.Email4JTestCase;
+import desi.juan.email.api.Email;
+import org.junit.Test;
+
+public class RetrieveOperationsTestCase extends Email4JTestCase {
+
+  private static final Pattern FETCH_COMMAND = Pattern.compile("^A\\d+ (UID )?FETCH ", MULTILINE);
+
+  @Test
+  public void retrieveFetchesAllTheEmailsAtOnce() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      user.deliver((MimeMessage) getSinglePartTestMessage());
+    }
+
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    Session session = Session.getInstance(new Properties());
+    session.setDebug(true);
+    session.setDebugOut(new PrintStream(log, true));
+    Store store = session.getStore(getProtocol());
+    store.connect(HOST, PORT, GOKU_EMAIL, PASSWORD);
+    try {
+      Folder folder = store.getFolder(INBOX_FOLDER);
+      folder.open(Folder.READ_ONLY);
+      List<Email> emails = new RetrieveOperations().retrieve(folder, false);
+      emails.forEach(email -> {
+        email.getSubject();
+        email.getFlags();
+        email.getHeaders();
+      });
+      assertThat(emails, hasSize(20));
+      assertThat(countFetchCommands(log.toString()), is(1));
+    } finally {
+      store.close();
+    }
+  }
+
+  private int countFetchCommands(String log) {
+    Matcher matcher = FETCH_COMMAND.matcher(log);
+    int count = 0;
+    while (matcher.find()) {
+      count++;
+    }
+    return count;
+  }
+
+  @Override
+  public String getProtocol() {
+    return "imap";
+  }
+}
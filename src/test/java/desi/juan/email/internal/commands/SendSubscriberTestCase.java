@@ -0,0 +1,91 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.commands;
+
+import static desi.juan.email.EmailTestUtils.GOHAN_EMAIL;
+import static desi.juan.email.EmailTestUtils.GOKU_EMAIL;
+import static desi.juan.email.api.EmailBuilder.newEmail;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import desi.juan.email.api.Email;
+import desi.juan.email.api.Flow;
+import org.junit.Test;
+
+public class SendSubscriberTestCase {
+
+  @Test
+  public void sendsFinishedWithinOnNextDoNotReenterTheSubscription() throws Exception {
+    int total = 1000;
+    Email email = newEmail().to(GOHAN_EMAIL).from(GOKU_EMAIL).withSubject("Kamehameha").withBody("Ha!").build();
+    AtomicInteger failed = new AtomicInteger();
+    // every send fails right away, before onNext returns.
+    SendSubscriber subscriber = new SendSubscriber(e -> {
+      throw new IllegalStateException("Out of ki");
+    }, 4, result -> failed.incrementAndGet());
+
+    Thread publisher = Thread.currentThread();
+    AtomicLong demand = new AtomicLong();
+    AtomicBoolean signalling = new AtomicBoolean();
+    AtomicBoolean reentered = new AtomicBoolean();
+    subscriber.onSubscribe(new Flow.Subscription() {
+
+      @Override
+      public void request(long n) {
+        if (Thread.currentThread() == publisher && signalling.get()) {
+          reentered.set(true);
+        }
+        demand.addAndGet(n);
+      }
+
+      @Override
+      public void cancel() {}
+    });
+
+    long deadline = System.currentTimeMillis() + 10000;
+    for (int published = 0; published < total; published++) {
+      while (demand.get() == 0) {
+        if (System.currentTimeMillis() > deadline) {
+          fail("the subscriber stopped requesting emails");
+        }
+        Thread.yield();
+      }
+      demand.decrementAndGet();
+      signalling.set(true);
+      subscriber.onNext(email);
+      signalling.set(false);
+    }
+    subscriber.onComplete();
+
+    subscriber.completion().get(10, SECONDS);
+    assertThat(reentered.get(), is(false));
+    assertThat(failed.get(), is(total));
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.connection;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.Test;
+
+public class CircuitBreakerTestCase {
+
+  @Test
+  public void opensAfterConsecutiveFailures() {
+    CircuitBreaker breaker = new CircuitBreaker(2, 60000);
+    breaker.onFailure();
+    breaker.onSuccess();
+    breaker.onFailure();
+    assertThat(breaker.allowRequest(), is(true));
+    breaker.onFailure();
+    assertThat(breaker.allowRequest(), is(false));
+  }
+
+  @Test
+  public void letsASingleProbeThroughAfterTheRetryTime() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(1, 50);
+    breaker.onFailure();
+    assertThat(breaker.allowRequest(), is(false));
+
+    Thread.sleep(100);
+    assertThat(breaker.allowRequest(), is(true));
+    assertThat(breaker.allowRequest(), is(false));
+    // a failed probe keeps it out of rotation for another retry time.
+    breaker.onFailure();
+    assertThat(breaker.allowRequest(), is(false));
+
+    Thread.sleep(100);
+    assertThat(breaker.allowRequest(), is(true));
+    breaker.onSuccess();
+    assertThat(breaker.allowRequest(), is(true));
+    assertThat(breaker.allowRequest(), is(true));
+  }
+}
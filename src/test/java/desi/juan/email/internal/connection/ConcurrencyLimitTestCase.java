@@ -0,0 +1,67 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.connection;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.Test;
+
+public class ConcurrencyLimitTestCase {
+
+  @Test
+  public void halvesOnCongestionAndGrowsBackOnSuccess() throws Exception {
+    ConcurrencyLimit limit = new ConcurrencyLimit(8, true);
+    assertThat(limit.getLimit(), is(8));
+
+    limit.onCongestion();
+    assertThat(limit.getLimit(), is(4));
+    // the same overload is only counted once.
+    limit.onCongestion();
+    assertThat(limit.getLimit(), is(4));
+
+    // a round of successful sends at the current limit grows it by about one.
+    for (int i = 0; i < 5; i++) {
+      limit.onSuccess();
+    }
+    assertThat(limit.getLimit(), is(5));
+  }
+
+  @Test
+  public void acquireIsBoundedByTheCurrentLimit() throws Exception {
+    ConcurrencyLimit limit = new ConcurrencyLimit(2, true);
+    limit.onCongestion();
+    assertThat(limit.tryAcquire(0), is(true));
+    assertThat(limit.tryAcquire(10), is(false));
+    limit.release();
+    assertThat(limit.tryAcquire(0), is(true));
+  }
+
+  @Test
+  public void fixedLimitIgnoresServerReplies() {
+    ConcurrencyLimit limit = new ConcurrencyLimit(8, false);
+    limit.onCongestion();
+    assertThat(limit.getLimit(), is(8));
+  }
+}
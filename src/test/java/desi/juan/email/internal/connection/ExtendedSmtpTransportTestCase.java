@@ -0,0 +1,558 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.connection;
+
+import static desi.juan.email.EmailTestUtils.EMAIL_CONTENT;
+import static desi.juan.email.EmailTestUtils.GOHAN_EMAIL;
+import static desi.juan.email.EmailTestUtils.GOKU_EMAIL;
+import static desi.juan.email.EmailTestUtils.VEGETA_EMAIL;
+import static desi.juan.email.EmailTestUtils.verifyDkimSignature;
+import static desi.juan.email.api.EmailBuilder.newEmail;
+import static desi.juan.email.api.client.configuration.SmtpConfigurationBuilder.newSmtpConfiguration;
+import static desi.juan.email.api.security.DkimConfigurationBuilder.newDkimConfiguration;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.mail.Message.RecipientType.TO;
+import static junit.framework.TestCase.fail;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.activation.DataHandler;
+import javax.mail.Address;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+
+import com.sun.mail.smtp.SMTPMessage;
+import desi.juan.email.api.Email;
+import desi.juan.email.api.EmailAttachment;
+import desi.juan.email.api.SendResult;
+import desi.juan.email.api.client.SmtpClient;
+import desi.juan.email.api.client.configuration.ClientConfiguration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExtendedSmtpTransportTestCase {
+
+  private static final String REJECTED_EMAIL = "frieza@dbz.com";
+
+  private PipeliningServer server;
+  private ExtendedSmtpTransport transport;
+
+  @Before
+  public void setup() throws Exception {
+    server = new PipeliningServer(3, 2);
+    server.start();
+    Properties properties = new Properties();
+    properties.setProperty("mail.smtp.host", "127.0.0.1");
+    properties.setProperty("mail.smtp.port", Integer.toString(server.getPort()));
+    properties.setProperty("mail.smtp.timeout", "5000");
+    transport = new ExtendedSmtpTransport(Session.getInstance(properties), "smtp");
+    transport.connect();
+  }
+
+  @After
+  public void dispose() throws Exception {
+    transport.close();
+    server.close();
+  }
+
+  @Test
+  public void pipelinedRecipientsAreReportedIndividually() throws Exception {
+    MimeMessage message = buildMessage(GOHAN_EMAIL, REJECTED_EMAIL, VEGETA_EMAIL);
+    try {
+      transport.sendMessage(message, message.getAllRecipients());
+      fail("the rejected recipient should have failed the send");
+    } catch (SendFailedException e) {
+      assertThat(e.getInvalidAddresses(), arrayWithSize(1));
+      assertThat(e.getInvalidAddresses()[0].toString(), is(REJECTED_EMAIL));
+      assertThat(e.getValidUnsentAddresses(), arrayWithSize(2));
+    }
+
+    // the transaction was reset so the session is still usable
+    MimeMessage valid = buildMessage(GOHAN_EMAIL, VEGETA_EMAIL);
+    transport.sendMessage(valid, valid.getAllRecipients());
+    assertThat(server.getCommands(), hasItem("RSET"));
+    assertThat(server.getDeliveries(), is(1));
+  }
+
+  @Test
+  public void binaryMessageIsSentInBdatChunks() throws Exception {
+    EsmtpServer chunkingServer = new EsmtpServer("CHUNKING", "BINARYMIME");
+    chunkingServer.start();
+    Properties properties = new Properties();
+    properties.setProperty("mail.smtp.host", "127.0.0.1");
+    properties.setProperty("mail.smtp.port", Integer.toString(chunkingServer.getPort()));
+    properties.setProperty("mail.smtp.timeout", "5000");
+    properties.setProperty("mail.smtp.chunksize", "64");
+    ExtendedSmtpTransport chunkingTransport = new ExtendedSmtpTransport(Session.getInstance(properties), "smtp");
+    chunkingTransport.connect();
+    try {
+      byte[] binary = new byte[256];
+      for (int i = 0; i < binary.length; i++) {
+        binary[i] = (byte) i;
+      }
+      SMTPMessage message = new SMTPMessage(Session.getInstance(new Properties()));
+      message.setMailExtension("BODY=BINARYMIME");
+      message.setFrom(new InternetAddress(GOKU_EMAIL));
+      message.setRecipients(TO, GOHAN_EMAIL);
+      MimeBodyPart attachment = new MimeBodyPart();
+      attachment.setDataHandler(new DataHandler(new ByteArrayDataSource(binary, "application/octet-stream")));
+      attachment.setHeader("Content-Transfer-Encoding", "binary");
+      message.setContent(new MimeMultipart(attachment));
+      message.saveChanges();
+      chunkingTransport.sendMessage(message, message.getAllRecipients());
+
+      assertThat(chunkingServer.getCommands(), hasItem("MAIL FROM:<" + GOKU_EMAIL + "> BODY=BINARYMIME"));
+      assertThat(chunkingServer.getCommands().stream().filter(cmd -> cmd.startsWith("BDAT")).count(), greaterThan(1L));
+      assertThat(chunkingServer.getCommands(), not(hasItem("DATA")));
+      // the attachment bytes are written as they are.
+      byte[] received = chunkingServer.getContent();
+      assertThat(indexOf(received, binary), greaterThan(0));
+    } finally {
+      chunkingTransport.close();
+      chunkingServer.close();
+    }
+  }
+
+  @Test
+  public void chunkedTextHasCrlfLineBreaks() throws Exception {
+    EsmtpServer chunkingServer = new EsmtpServer("CHUNKING");
+    chunkingServer.start();
+    Properties properties = new Properties();
+    properties.setProperty("mail.smtp.host", "127.0.0.1");
+    properties.setProperty("mail.smtp.port", Integer.toString(chunkingServer.getPort()));
+    properties.setProperty("mail.smtp.timeout", "5000");
+    properties.setProperty("mail.smtp.chunksize", "64");
+    ExtendedSmtpTransport chunkingTransport = new ExtendedSmtpTransport(Session.getInstance(properties), "smtp");
+    chunkingTransport.connect();
+    try {
+      MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+      message.setFrom(new InternetAddress(GOKU_EMAIL));
+      message.setRecipients(TO, GOHAN_EMAIL);
+      message.setText("kame\nhame\nha\n");
+      message.saveChanges();
+      chunkingTransport.sendMessage(message, message.getAllRecipients());
+    } finally {
+      chunkingTransport.close();
+      chunkingServer.close();
+    }
+
+    assertThat(chunkingServer.getCommands(), hasItem(startsWith("BDAT")));
+    byte[] received = chunkingServer.getContent();
+    assertThat(indexOf(received, "kame\r\nhame\r\nha\r\n".getBytes(US_ASCII)), greaterThan(0));
+    assertThat(hasBareLineFeed(received), is(false));
+  }
+
+  @Test
+  public void binaryMessageTextHasCrlfLineBreaks() throws Exception {
+    EsmtpServer chunkingServer = new EsmtpServer("CHUNKING", "BINARYMIME");
+    chunkingServer.start();
+    SmtpClient client = new SmtpClient(GOKU_EMAIL, "password", "127.0.0.1", chunkingServer.getPort(), new ClientConfiguration(),
+                                       newSmtpConfiguration().withWarmUpConnections(1).build());
+    byte[] binary = {'\n', 0, '\r', 1, '\n'};
+    EmailAttachment attachment = new EmailAttachment("capsule.bin", new ByteArrayDataSource(binary, "application/octet-stream"),
+                                                     "application/octet-stream");
+    try {
+      client.ready().get(10, SECONDS);
+      client.send(newEmail().from(GOKU_EMAIL).to(GOHAN_EMAIL).withSubject("Kamehameha").withBody("kame\nhame\nha")
+                    .withAttachment(attachment)
+                    .build());
+    } finally {
+      client.disconnect();
+      chunkingServer.close();
+    }
+
+    assertThat(chunkingServer.getCommands(), hasItem("MAIL FROM:<" + GOKU_EMAIL + "> BODY=BINARYMIME"));
+    byte[] received = chunkingServer.getContent();
+    assertThat(indexOf(received, "kame\r\nhame\r\nha".getBytes(US_ASCII)), greaterThan(0));
+    // the attachment bytes are not touched.
+    assertThat(indexOf(received, binary), greaterThan(0));
+  }
+
+  @Test
+  public void signedMessageIsNotSentAsBinary() throws Exception {
+    EsmtpServer chunkingServer = new EsmtpServer("CHUNKING", "BINARYMIME");
+    chunkingServer.start();
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(1024);
+    KeyPair keys = generator.generateKeyPair();
+    String privateKey = Base64.getEncoder().encodeToString(keys.getPrivate().getEncoded());
+    SmtpClient client = new SmtpClient(GOKU_EMAIL, "password", "127.0.0.1", chunkingServer.getPort(), new ClientConfiguration(),
+                                       newSmtpConfiguration()
+                                         .withWarmUpConnections(1)
+                                         .withDkim(newDkimConfiguration()
+                                                     .withDomain("dbz.com")
+                                                     .withSelector("capsule")
+                                                     .withPrivateKey(privateKey)
+                                                     .build())
+                                         .build());
+    byte[] binary = {'\n', 0, '\r', 1, '\n'};
+    EmailAttachment attachment = new EmailAttachment("capsule.bin", new ByteArrayDataSource(binary, "application/octet-stream"),
+                                                     "application/octet-stream");
+    try {
+      client.ready().get(10, SECONDS);
+      client.send(newEmail().from(GOKU_EMAIL).to(GOHAN_EMAIL).withSubject("Kamehameha").withBody("kame\nhame\nha")
+                    .withAttachment(attachment)
+                    .build());
+    } finally {
+      client.disconnect();
+      chunkingServer.close();
+    }
+
+    assertThat(chunkingServer.getCommands(), hasItem("MAIL FROM:<" + GOKU_EMAIL + ">"));
+    assertThat(verifyDkimSignature(chunkingServer.getContent(), keys.getPublic()), is(true));
+  }
+
+  @Test
+  public void utf8MessageIsSentUnencoded() throws Exception {
+    EsmtpServer utf8Server = new EsmtpServer("8BITMIME", "SMTPUTF8");
+    utf8Server.start();
+    SmtpClient client = new SmtpClient(GOKU_EMAIL, "password", "127.0.0.1", utf8Server.getPort(), new ClientConfiguration(),
+                                       newSmtpConfiguration().withWarmUpConnections(1).build());
+    String subject = "Gr\u00fc\u00dfe aus \u6771\u4eac";
+    String body = "\u3053\u3093\u306b\u3061\u306f, \u00bfqu\u00e9 tal?";
+    String recipient = "\u609f\u98ef@dbz.com";
+    try {
+      // the extensions are learned once a connection is opened.
+      client.ready().get(10, SECONDS);
+      client.send(newEmail().from(GOKU_EMAIL).to(recipient).withSubject(subject).withBody(body).build());
+    } finally {
+      client.disconnect();
+      utf8Server.close();
+    }
+
+    assertThat(utf8Server.getCommands(),
+               hasItem("MAIL FROM:<" + GOKU_EMAIL + "> BODY=8BITMIME SMTPUTF8"));
+    assertThat(utf8Server.getCommands(), hasItem("RCPT TO:<" + new String(recipient.getBytes(UTF_8), ISO_8859_1) + ">"));
+    byte[] received = utf8Server.getContent();
+    assertThat(indexOf(received, body.getBytes(UTF_8)), greaterThan(0));
+    assertThat(indexOf(received, ("Subject: " + subject).getBytes(UTF_8)), greaterThan(0));
+    assertThat(indexOf(received, "Content-Transfer-Encoding: 8bit".getBytes(US_ASCII)), greaterThan(0));
+  }
+
+  @Test
+  public void rejectedMessageDoesNotEndTheBatch() throws Exception {
+    EsmtpServer rejectingServer = new EsmtpServer();
+    rejectingServer.rejectMessage(2);
+    rejectingServer.start();
+    SmtpClient client = new SmtpClient(GOKU_EMAIL, "password", "127.0.0.1", rejectingServer.getPort(),
+                                       new ClientConfiguration(), newSmtpConfiguration().build());
+    List<SendResult> results;
+    try {
+      results = client.sendAll(asList(buildEmail(GOHAN_EMAIL), buildEmail(VEGETA_EMAIL), buildEmail(GOHAN_EMAIL)));
+    } finally {
+      client.disconnect();
+      rejectingServer.close();
+    }
+
+    assertThat(results.get(0).isSuccess(), is(true));
+    assertThat(results.get(1).isSuccess(), is(false));
+    assertThat(results.get(1).getPermanentlyRejectedRecipients(), contains(VEGETA_EMAIL));
+    assertThat(results.get(2).isSuccess(), is(true));
+    assertThat(rejectingServer.getDeliveries(), is(2));
+    // all of them went through the same session, the rejected transaction did not end it.
+    assertThat(rejectingServer.getCommands().stream().filter(cmd -> cmd.startsWith("EHLO")).count(), is(1L));
+  }
+
+  private Email buildEmail(String recipient) {
+    return newEmail().from(GOKU_EMAIL).to(recipient).withSubject("Kamehameha").withBody(EMAIL_CONTENT).build();
+  }
+
+  private static boolean hasBareLineFeed(byte[] data) {
+    for (int i = 0; i < data.length; i++) {
+      if (data[i] == '\n' && (i == 0 || data[i - 1] != '\r')) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int indexOf(byte[] data, byte[] target) {
+    for (int i = 0; i <= data.length - target.length; i++) {
+      if (Arrays.equals(Arrays.copyOfRange(data, i, i + target.length), target)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private MimeMessage buildMessage(String... recipients) throws Exception {
+    MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+    message.setFrom(new InternetAddress(GOKU_EMAIL));
+    List<Address> addresses = new ArrayList<>();
+    for (String recipient : recipients) {
+      addresses.add(new InternetAddress(recipient));
+    }
+    message.setRecipients(TO, addresses.toArray(new Address[addresses.size()]));
+    message.setText(EMAIL_CONTENT);
+    message.saveChanges();
+    return message;
+  }
+
+  /**
+   * A minimal SMTP server that advertises PIPELINING and only answers the MAIL FROM command once it received all the RCPT TO
+   * commands of the transaction, a client that waits for each response before sending the next command times out.
+   */
+  private static final class PipeliningServer extends Thread {
+
+    private final ServerSocket socket;
+    private final Deque<Integer> recipientsPerTransaction = new ArrayDeque<>();
+    private final List<String> commands = new ArrayList<>();
+    private int deliveries;
+
+    PipeliningServer(Integer... recipientsPerTransaction) throws IOException {
+      this.socket = new ServerSocket(0);
+      for (Integer recipients : recipientsPerTransaction) {
+        this.recipientsPerTransaction.add(recipients);
+      }
+      setDaemon(true);
+    }
+
+    int getPort() {
+      return socket.getLocalPort();
+    }
+
+    synchronized List<String> getCommands() {
+      return new ArrayList<>(commands);
+    }
+
+    synchronized int getDeliveries() {
+      return deliveries;
+    }
+
+    void close() throws IOException {
+      socket.close();
+    }
+
+    @Override
+    public void run() {
+      try (Socket client = socket.accept()) {
+        client.setSoTimeout(5000);
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), US_ASCII));
+        OutputStream out = client.getOutputStream();
+        reply(out, "220 pipelining server");
+        String line;
+        while ((line = in.readLine()) != null) {
+          record(line);
+          if (line.startsWith("EHLO")) {
+            reply(out, "250-pipelining server\r\n250 PIPELINING");
+          } else if (line.startsWith("MAIL FROM:")) {
+            StringBuilder responses = new StringBuilder("250 sender ok");
+            int recipients = recipientsPerTransaction.poll();
+            for (int i = 0; i < recipients; i++) {
+              String rcpt = in.readLine();
+              record(rcpt);
+              responses.append("\r\n").append(rcpt.contains(REJECTED_EMAIL) ? "550 no such user" : "250 recipient ok");
+            }
+            reply(out, responses.toString());
+          } else if (line.equals("DATA")) {
+            reply(out, "354 go ahead");
+            while (!".".equals(in.readLine())) {
+              // consume the message
+            }
+            synchronized (this) {
+              deliveries++;
+            }
+            reply(out, "250 delivered");
+          } else if (line.equals("QUIT")) {
+            reply(out, "221 bye");
+            return;
+          } else {
+            reply(out, "250 ok");
+          }
+        }
+      } catch (IOException e) {
+        // the test is over
+      }
+    }
+
+    private synchronized void record(String line) {
+      commands.add(line);
+    }
+
+    private void reply(OutputStream out, String response) throws IOException {
+      out.write((response + "\r\n").getBytes(US_ASCII));
+      out.flush();
+    }
+  }
+
+  /**
+   * A minimal SMTP server that advertises the provided extensions and collects the content of the messages it gets, either
+   * in BDAT chunks or after DATA.
+   */
+  private static final class EsmtpServer extends Thread {
+
+    private final ServerSocket socket;
+    private final String[] extensions;
+    private final List<String> commands = new ArrayList<>();
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    private final Set<Integer> rejectedMessages = new HashSet<>();
+    private int messages;
+    private int deliveries;
+
+    EsmtpServer(String... extensions) throws IOException {
+      this.socket = new ServerSocket(0);
+      this.extensions = extensions;
+      setDaemon(true);
+    }
+
+    int getPort() {
+      return socket.getLocalPort();
+    }
+
+    synchronized List<String> getCommands() {
+      return new ArrayList<>(commands);
+    }
+
+    synchronized byte[] getContent() {
+      return content.toByteArray();
+    }
+
+    synchronized int getDeliveries() {
+      return deliveries;
+    }
+
+    /**
+     * Makes the server reject the message with the provided {@code number}, counting from 1, once it's content was sent.
+     */
+    synchronized void rejectMessage(int number) {
+      rejectedMessages.add(number);
+    }
+
+    void close() throws IOException {
+      socket.close();
+    }
+
+    @Override
+    public void run() {
+      try (Socket client = socket.accept()) {
+        client.setSoTimeout(5000);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+        OutputStream out = client.getOutputStream();
+        reply(out, "220 esmtp server");
+        String line;
+        while ((line = readLine(in)) != null) {
+          synchronized (this) {
+            commands.add(line);
+          }
+          if (line.startsWith("EHLO")) {
+            StringBuilder ehlo = new StringBuilder("250-esmtp server");
+            for (String extension : extensions) {
+              ehlo.append("\r\n250-").append(extension);
+            }
+            reply(out, ehlo.append("\r\n250 HELP").toString());
+          } else if (line.equals("DATA")) {
+            reply(out, "354 go ahead");
+            String data;
+            while (!".".equals(data = readLine(in))) {
+              synchronized (this) {
+                content.write(data.getBytes(ISO_8859_1));
+                content.write('\n');
+              }
+            }
+            reply(out, endOfMessage());
+          } else if (line.startsWith("BDAT")) {
+            byte[] chunk = new byte[Integer.parseInt(line.split(" ")[1])];
+            in.readFully(chunk);
+            synchronized (this) {
+              content.write(chunk);
+            }
+            reply(out, line.endsWith(" LAST") ? endOfMessage() : "250 chunk ok");
+          } else if (line.equals("QUIT")) {
+            reply(out, "221 bye");
+            return;
+          } else {
+            reply(out, "250 ok");
+          }
+        }
+      } catch (IOException e) {
+        // the test is over
+      }
+    }
+
+    private synchronized String endOfMessage() {
+      if (rejectedMessages.contains(++messages)) {
+        return "554 message rejected";
+      }
+      deliveries++;
+      return "250 delivered";
+    }
+
+    private String readLine(DataInputStream in) throws IOException {
+      StringBuilder line = new StringBuilder();
+      int c;
+      while ((c = in.read()) != -1) {
+        if (c == '\n') {
+          return line.toString();
+        }
+        if (c != '\r') {
+          line.append((char) c);
+        }
+      }
+      return null;
+    }
+
+    private void reply(OutputStream out, String response) throws IOException {
+      out.write((response + "\r\n").getBytes(US_ASCII));
+      out.flush();
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.connection;
+
+import static desi.juan.email.api.client.configuration.SmtpConfigurationBuilder.newSmtpConfiguration;
+import static desi.juan.email.internal.EmailProtocol.SMTP;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import desi.juan.email.api.client.configuration.SmtpConfiguration;
+import desi.juan.email.internal.exception.EmailConnectionException;
+import org.junit.Test;
+
+public class RelayBalancerTestCase {
+
+  private static final String HOST = "127.0.0.1";
+
+  @Test
+  public void failedSendIsReportedWhenNoRelayIsLeft() {
+    SmtpConfiguration config = newSmtpConfiguration().withRelayFailureThreshold(1).build();
+    SenderConnection failing = new SenderConnection(SMTP, "user", "pass", HOST, 10001, 1000, 1000, 1000, emptyMap(), config);
+    SenderConnection down = new SenderConnection(SMTP, "user", "pass", HOST, 10002, 1000, 1000, 1000, emptyMap(), config);
+    // a single connection failure takes the relay out of rotation.
+    try {
+      new RelayBalancer(singletonList(down), singletonList(1)).execute(SenderConnection::borrowTransport);
+      fail("the relay should not be reachable");
+    } catch (EmailConnectionException e) {
+      assertThat(down.isAvailable(), is(false));
+    }
+
+    EmailConnectionException sendError = new EmailConnectionException("Connection refused");
+    RelayBalancer balancer = new RelayBalancer(asList(failing, down), asList(1, 1));
+    try {
+      balancer.execute(connection -> {
+        throw sendError;
+      });
+      fail("the send should have failed");
+    } catch (EmailConnectionException e) {
+      assertThat(e, is(sameInstance(sendError)));
+      assertThat(e.getSuppressed(), is(arrayWithSize(1)));
+      assertThat(e.getSuppressed()[0].getMessage(), containsString("all the SMTP relays are failing"));
+    } finally {
+      balancer.disconnect();
+    }
+  }
+
+  @Test
+  public void relayBackInRotationDoesNotTakeABurstOfSends() throws Exception {
+    SmtpConfiguration config = newSmtpConfiguration().withRelayFailureThreshold(1).withRelayRetryTime(200).build();
+    SenderConnection up = new SenderConnection(SMTP, "user", "pass", HOST, 10001, 1000, 1000, 1000, emptyMap(), config);
+    SenderConnection down = new SenderConnection(SMTP, "user", "pass", HOST, 10002, 1000, 1000, 1000, emptyMap(), config);
+    RelayBalancer balancer = new RelayBalancer(asList(up, down), asList(1, 1));
+    try {
+      try {
+        down.borrowTransport();
+        fail("the relay should not be reachable");
+      } catch (EmailConnectionException e) {
+        assertThat(down.isAvailable(), is(false));
+      }
+      for (int i = 0; i < 10; i++) {
+        assertThat(balancer.execute(connection -> connection), is(sameInstance(up)));
+      }
+
+      Thread.sleep(300);
+      // the probe goes to the relay that was out of rotation and brings it back.
+      SenderConnection probed = balancer.execute(connection -> {
+        connection.recordSuccess();
+        return connection;
+      });
+      assertThat(probed, is(sameInstance(down)));
+
+      List<SenderConnection> picked = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        picked.add(balancer.execute(connection -> connection));
+      }
+      assertThat(picked, is(asList(up, down, up, down)));
+    } finally {
+      balancer.disconnect();
+    }
+  }
+}
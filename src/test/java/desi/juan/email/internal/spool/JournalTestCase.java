@@ -0,0 +1,113 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Juan Desimoni
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package desi.juan.email.internal.spool;
+
+import static desi.juan.email.internal.spool.Journal.ENQUEUED;
+import static desi.juan.email.internal.spool.Journal.REMOVED;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JournalTestCase {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void tornRecordsAreDiscarded() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("test.journal");
+    Journal journal = new Journal(file);
+    journal.replay((type, id, offset, length) -> {});
+    journal.append(ENQUEUED, 1, "goku".getBytes(UTF_8));
+    int torn = journal.size();
+    journal.append(ENQUEUED, 2, "vegeta".getBytes(UTF_8));
+    journal.close();
+
+    // corrupts the data of the second record as if it was not completely written.
+    try (FileChannel channel = FileChannel.open(file, WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0}), torn + 18);
+    }
+
+    Journal recovered = new Journal(file);
+    List<String> records = new ArrayList<>();
+    recovered.replay((type, id, offset, length) -> records.add(new String(recovered.read(offset, length), UTF_8)));
+    assertThat(records, contains("goku"));
+    assertThat(recovered.size(), is(torn));
+    recovered.close();
+  }
+
+  @Test
+  public void compactKeepsOnlyLiveEntries() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("test.journal");
+    Journal journal = new Journal(file);
+    journal.replay((type, id, offset, length) -> {});
+    List<SpoolEntry> live = new ArrayList<>();
+    for (long id = 0; id < 100; id++) {
+      byte[] data = ("email " + id).getBytes(UTF_8);
+      int offset = journal.append(ENQUEUED, id, data);
+      if (id % 10 == 0) {
+        SpoolEntry entry = new SpoolEntry(id, offset, data.length);
+        entry.retryAt(2, 42);
+        if (id % 20 == 0) {
+          List<String> envelope = singletonList("gohan@dbz.com");
+          entry.setEnvelope(envelope, EmailSerializer.serializeRecipients(envelope).length);
+        }
+        live.add(entry);
+      } else {
+        journal.append(REMOVED, id, new byte[0]);
+      }
+    }
+    int size = journal.size();
+    journal.compact(live);
+    assertThat(journal.size(), lessThan(size));
+    // the records kept for each entry are the ones accounted as live by the spool.
+    assertThat(live.stream().mapToInt(Journal::entrySize).sum(), is(journal.size()));
+    assertThat(new String(journal.read(live.get(3).getOffset(), live.get(3).getLength()), UTF_8), is("email 30"));
+    journal.close();
+
+    Journal recovered = new Journal(file);
+    List<Long> enqueued = new ArrayList<>();
+    recovered.replay((type, id, offset, length) -> {
+      if (type == ENQUEUED) {
+        enqueued.add(id);
+      }
+    });
+    assertThat(enqueued, contains(0L, 10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L, 90L));
+    recovered.close();
+  }
+}